@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Compares rows per second for the old bulk insert (SQLiteDatabase.insert for every row) with
+    WeatherIngest's compiled statement, both inside a single transaction, at 14, 1,000 and
+    100,000 rows.  The results are written to the log under this class name.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int[] BENCHMARK_ROWS = {14, 1000, 100000};
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testCompiledInsertMatchesInsert() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+
+        WeatherIngest ingest = new WeatherIngest(db);
+        db.beginTransaction();
+        try {
+            assertTrue(ingest.upsert(values) != -1);
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+        assertEquals(1, ingest.getInserted());
+
+        TestUtilities.validateCursor("testCompiledInsertMatchesInsert",
+                db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null),
+                values);
+    }
+
+    public void testBulkInsertBenchmark() {
+        for (int rows : BENCHMARK_ROWS) {
+            ContentValues[] values = createRows(rows);
+
+            clearWeather();
+            long insertNanos = timeInsert(values);
+            clearWeather();
+            long compiledNanos = timeCompiledInsert(values);
+            clearWeather();
+            long upsertNanos = timeUpsert(values);
+
+            Log.i(LOG_TAG, String.format(
+                    "%d rows: insert() %.0f rows/sec, compiled statement %.0f rows/sec, "
+                            + "upsert %.0f rows/sec",
+                    rows,
+                    rows / (insertNanos / 1e9),
+                    rows / (compiledNanos / 1e9),
+                    rows / (upsertNanos / 1e9)));
+        }
+    }
+
+    private long timeInsert(ContentValues[] values) {
+        // This is what WeatherProvider.bulkInsert used to do
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtimeNanos();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        assertRowCount(values.length);
+        return elapsed;
+    }
+
+    private long timeCompiledInsert(ContentValues[] values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtimeNanos();
+        WeatherIngest ingest = new WeatherIngest(db);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                ingest.insert(mLocationRowId,
+                        value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                        value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                        value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                        value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        assertRowCount(values.length);
+        return elapsed;
+    }
+
+    private long timeUpsert(ContentValues[] values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtimeNanos();
+        WeatherIngest ingest = new WeatherIngest(db);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                ingest.upsert(value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        assertRowCount(values.length);
+        return elapsed;
+    }
+
+    private ContentValues[] createRows(int rows) {
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 20);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - i % 20);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private void clearWeather() {
+        mDbHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private void assertRowCount(int expected) {
+        assertEquals(expected, DatabaseUtils.queryNumEntries(
+                mDbHelper.getReadableDatabase(), WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts the callbacks each kind of observer gets when a sync stores its forecasts: the
+    forecast list and a day's detail for each location, registered the way their cursors are.
+    A sync should call each of them back at most once, and only if its location changed.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    private static final String LOCATION_A = "94043";
+    private static final String LOCATION_B = "10001";
+    private static final int NUM_DAYS = 5;
+
+    // Notifications are delivered asynchronously; this is how long to wait for any extra ones
+    private static final long SETTLE_MILLIS = 500;
+
+    private HandlerThread mObserverThread;
+    private final ArrayList<CountingObserver> mObservers = new ArrayList<CountingObserver>();
+
+    /**
+     * Counts its callbacks.
+     */
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger count = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mObserverThread = new HandlerThread("CountingObservers");
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingObserver observer : mObservers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        mObserverThread.quit();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testOneCallbackPerChangedLocationPerSync() throws Exception {
+        // The first sync, before anything is shown
+        sync(createDays(0), createDays(0));
+
+        CountingObserver listA = observe(WeatherEntry.buildWeatherLocationWithStartDate(
+                LOCATION_A, TestUtilities.dateFromToday(0)));
+        CountingObserver detailA = observe(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TestUtilities.dateFromToday(0)));
+        CountingObserver otherDetailA = observe(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TestUtilities.dateFromToday(1)));
+        CountingObserver listB = observe(WeatherEntry.buildWeatherLocationWithStartDate(
+                LOCATION_B, TestUtilities.dateFromToday(0)));
+        CountingObserver everything = observe(WeatherEntry.CONTENT_URI);
+
+        // Nothing changed: nobody hears anything
+        sync(createDays(0), createDays(0));
+        assertCounts(0, listA, detailA, otherDetailA, listB, everything);
+
+        // Every day of A changed: its list and details hear once, B hears nothing
+        sync(createDays(10), createDays(0));
+        assertCounts(1, listA, detailA, otherDetailA, everything);
+        assertCounts(0, listB);
+
+        // Only today of A changed: its list and today's detail hear once
+        ContentValues[] changedToday = createDays(10);
+        changedToday[0].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        reset(listA, detailA, otherDetailA, listB, everything);
+        sync(changedToday, createDays(0));
+        assertCounts(1, listA, detailA, everything);
+        assertCounts(0, otherDetailA, listB);
+
+        // Both locations changed
+        reset(listA, detailA, otherDetailA, listB, everything);
+        sync(createDays(20), createDays(20));
+        assertCounts(1, listA, detailA, otherDetailA, listB);
+        assertEquals("Error: the weather observer should hear once per location", 2,
+                everything.count.get());
+    }
+
+    /**
+     * Stores the forecasts the way the sync adapter does: one batch holding each location and
+     * its days, the days taking the location's _ID by back reference.
+     */
+    private void sync(ContentValues[] daysA, ContentValues[] daysB) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        addLocation(operations, LOCATION_A, daysA);
+        addLocation(operations, LOCATION_B, daysB);
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        SystemClock.sleep(SETTLE_MILLIS);
+    }
+
+    private static void addLocation(ArrayList<ContentProviderOperation> operations,
+                                    String locationSetting, ContentValues[] days) {
+        int locationIndex = operations.size();
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(location)
+                .build());
+        for (ContentValues day : days) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationIndex)
+                    .build());
+        }
+    }
+
+    /**
+     * @return {@link #NUM_DAYS} days from today, their temperatures offset by {@code offset}
+     */
+    private static ContentValues[] createDays(int offset) {
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            // The location is filled in by back reference
+            days[i] = TestUtilities.createWeatherValues(0);
+            days[i].remove(WeatherEntry.COLUMN_LOC_KEY);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.dateFromToday(i));
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + offset + i);
+        }
+        return days;
+    }
+
+    /**
+     * Registers an observer the way a cursor does, including descendants.
+     */
+    private CountingObserver observe(Uri uri) {
+        CountingObserver observer = new CountingObserver(new Handler(mObserverThread.getLooper()));
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private static void reset(CountingObserver... observers) {
+        for (CountingObserver observer : observers) {
+            observer.count.set(0);
+        }
+    }
+
+    private static void assertCounts(int expected, CountingObserver... observers) {
+        for (int i = 0; i < observers.length; i++) {
+            assertEquals("Error: wrong number of callbacks for observer " + i, expected,
+                    observers[i].count.get());
+        }
+    }
+}
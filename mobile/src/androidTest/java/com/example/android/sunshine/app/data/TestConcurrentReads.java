@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs a writer rewriting the forecast in back to back transactions, the way a sync does,
+    against several threads reading one location's forecast, first on the default rollback
+    journal and then with WeatherDbHelper's write-ahead log and settings.  The reader latency
+    percentiles for each are written to the log under this class name.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 20;
+    private static final int NUM_DAYS = 14;
+    private static final int NUM_READERS = 4;
+    private static final long RUN_MILLIS = 3000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String READ_SQL = WeatherProvider.sWeatherByLocationSettingQueryBuilder
+            .buildQuery(null, WeatherProvider.sLocationSettingSelection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC", null);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testJournalMode() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            assertEquals("Error: the database should use a write-ahead log", "wal",
+                    DatabaseUtils.stringForQuery(dbHelper.getReadableDatabase(),
+                            "PRAGMA journal_mode", null).toLowerCase());
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testReadersDuringWrites() throws Exception {
+        long[] rollback = run(false);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        long[] wal = run(true);
+
+        log("rollback journal", rollback);
+        log("write-ahead log", wal);
+    }
+
+    /**
+     * @return every read's latency in nanoseconds, sorted
+     */
+    private long[] run(boolean concurrent) throws Exception {
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, concurrent);
+        try {
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+            insertLocations(db);
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final CountDownLatch done = new CountDownLatch(NUM_READERS + 1);
+            final LatencyLog[] logs = new LatencyLog[NUM_READERS];
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int pass = 0;
+                        while (running.get()) {
+                            rewriteForecast(db, pass++);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            writer.start();
+
+            for (int i = 0; i < NUM_READERS; i++) {
+                final LatencyLog log = logs[i] = new LatencyLog();
+                final int reader = i;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int read = 0;
+                            while (running.get()) {
+                                String[] args = {locationSetting((reader + read++) % NUM_LOCATIONS)};
+                                long start = SystemClock.elapsedRealtimeNanos();
+                                Cursor cursor = db.rawQuery(READ_SQL, args);
+                                try {
+                                    assertEquals(NUM_DAYS, cursor.getCount());
+                                } finally {
+                                    cursor.close();
+                                }
+                                log.add(SystemClock.elapsedRealtimeNanos() - start);
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+
+            Thread.sleep(RUN_MILLIS);
+            running.set(false);
+            done.await();
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+
+            int count = 0;
+            for (LatencyLog log : logs) {
+                count += log.size;
+            }
+            assertTrue("Error: the readers didn't get to read", count > 0);
+            long[] latencies = new long[count];
+            int offset = 0;
+            for (LatencyLog log : logs) {
+                System.arraycopy(log.values, 0, latencies, offset, log.size);
+                offset += log.size;
+            }
+            Arrays.sort(latencies);
+            return latencies;
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private static void insertLocations(SQLiteDatabase db) {
+        WeatherIngest ingest = new WeatherIngest(db);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_LOCATIONS; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+                for (int day = 0; day < NUM_DAYS; day++) {
+                    ingest.insert(locationId,
+                            WeatherContract.normalizeDate(TestUtilities.TEST_DATE + day * DAY_IN_MILLIS),
+                            "Asteroids", 321, 65, 75, 1.2, 1.3, 5.5, 1.1);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Changes every row in one transaction, as a sync storing new forecasts does.
+     */
+    private static void rewriteForecast(SQLiteDatabase db, int pass) {
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_LOCATIONS; i++) {
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + (pass + i) % 20);
+                db.update(WeatherEntry.TABLE_NAME, values,
+                        WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " + LocationEntry._ID
+                                + " FROM " + LocationEntry.TABLE_NAME + " WHERE "
+                                + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                        new String[]{locationSetting(i)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void log(String name, long[] sorted) {
+        Log.i(LOG_TAG, String.format(
+                "%s: %d reads, p50 %d us, p90 %d us, p99 %d us, max %d us",
+                name, sorted.length,
+                percentile(sorted, 50) / 1000, percentile(sorted, 90) / 1000,
+                percentile(sorted, 99) / 1000, sorted[sorted.length - 1] / 1000));
+    }
+
+    /**
+     * Nearest-rank percentile of an already sorted array.
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String locationSetting(int i) {
+        return "loc" + i;
+    }
+
+    /**
+     * One reader's latencies, grown as needed; only touched by that reader until it's done.
+     */
+    private static class LatencyLog {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Builds a database as each past version of the app left it, opens it with the current
+    WeatherDbHelper, and checks the result has the same schema as a new database and, for
+    versions with a migration, still has its rows.
+
+    When the schema changes, add the new version's statements to FIXTURES.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    // The statements that created each version's schema, as released.  Version 1 is from
+    // before migrations, and only has to be recreated.
+    private static final String[][] FIXTURES = {
+            // 1
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, date TEXT NOT NULL);"
+            },
+            // 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                            + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  "
+                            + "FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                            + "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // 3
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                            + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  "
+                            + "FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                            + "UNIQUE (location_id, date) ON CONFLICT REPLACE);"
+            },
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testFixtureForEveryPastVersion() {
+        assertEquals("Error: add the schema of every past version to FIXTURES",
+                WeatherDbHelper.DATABASE_VERSION - 1, FIXTURES.length);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        String expectedSchema = describeCurrentSchema();
+
+        for (int version = 1; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            boolean migrated = version >= WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+            long weatherId = createFixture(version, migrated);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: upgrading from version " + version + " gave a different schema",
+                        expectedSchema, describeSchema(db));
+                if (migrated) {
+                    assertFixtureRows("version " + version, db, weatherId);
+                } else {
+                    assertEquals("Error: version " + version + " should have been recreated empty", 0,
+                            DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+                }
+            } finally {
+                dbHelper.close();
+            }
+        }
+    }
+
+    public void testUpgradedTableKeepsReplaceOnConflict() {
+        long weatherId = createFixture(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION, true);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            ContentValues values = weatherValues(db);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+            long replacedId = db.insert(WeatherEntry.TABLE_NAME, null, values);
+            assertTrue(replacedId != -1);
+            assertTrue("Error: the new row should have a new id", replacedId > weatherId);
+            assertEquals("Error: a row for the same location and date should replace the old one",
+                    1, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * @return the schema of a database created new by the current WeatherDbHelper
+     */
+    private String describeCurrentSchema() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            return describeSchema(dbHelper.getWritableDatabase());
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Creates the database as {@code version} left it, with a location and a day of weather
+     * if {@code withRows}.
+     *
+     * @return the id of the weather row, or -1
+     */
+    private long createFixture(int version, boolean withRows) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        try {
+            for (String sql : FIXTURES[version - 1]) {
+                db.execSQL(sql);
+            }
+            long weatherId = -1;
+            if (withRows) {
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                        TestUtilities.createNorthPoleLocationValues());
+                assertTrue(locationId != -1);
+                weatherId = db.insert(WeatherEntry.TABLE_NAME, null,
+                        TestUtilities.createWeatherValues(locationId));
+                assertTrue(weatherId != -1);
+            }
+            db.setVersion(version);
+            return weatherId;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static ContentValues weatherValues(SQLiteDatabase db) {
+        long locationId = DatabaseUtils.longForQuery(db,
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME, null);
+        return TestUtilities.createWeatherValues(locationId);
+    }
+
+    private static void assertFixtureRows(String version, SQLiteDatabase db, long weatherId) {
+        Cursor location = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: the location from " + version + " was lost",
+                location, TestUtilities.createNorthPoleLocationValues());
+        location.close();
+
+        Cursor weather = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: the weather from " + version + " was lost",
+                weather, weatherValues(db));
+        weather.close();
+        assertEquals("Error: the weather row from " + version + " should keep its id", weatherId,
+                DatabaseUtils.longForQuery(db, "SELECT " + WeatherEntry._ID + " FROM "
+                        + WeatherEntry.TABLE_NAME, null));
+    }
+
+    /**
+     * Describes the columns and indexes of every table, in a form that doesn't depend on how
+     * the table came to be, so a migrated database can be compared with a new one.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        for (String table : new String[]{LocationEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                HistoryEntry.TABLE_NAME}) {
+            schema.append(table).append('\n');
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                while (columns.moveToNext()) {
+                    // name, type, not null, primary key
+                    schema.append("  ").append(columns.getString(1))
+                            .append(' ').append(columns.getString(2))
+                            .append(columns.getInt(3) != 0 ? " NOT NULL" : "")
+                            .append(columns.getInt(5) != 0 ? " PRIMARY KEY" : "")
+                            .append('\n');
+                }
+            } finally {
+                columns.close();
+            }
+            for (String index : indexes(db, table)) {
+                schema.append("  index");
+                Cursor info = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                try {
+                    while (info.moveToNext()) {
+                        schema.append(' ').append(info.getString(2));
+                    }
+                } finally {
+                    info.close();
+                }
+                schema.append('\n');
+            }
+        }
+        return schema.toString();
+    }
+
+    private static List<String> indexes(SQLiteDatabase db, String table) {
+        List<String> indexes = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ? "
+                + "ORDER BY name", new String[]{table});
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static ContentValues createDay(long date, double maxTemp) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, maxTemp - 10);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 180.0);
+        return values;
+    }
+
+    public void testPublishReplacesSnapshot() {
+        String location = Utility.getPreferredLocation(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long dayInMillis = 24 * 60 * 60 * 1000;
+
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        days.add(createDay(today - dayInMillis, 10));
+        days.add(createDay(today, 20));
+        days.add(createDay(today + dayInMillis, 30));
+        ForecastSnapshot.publish(mContext, location, days);
+
+        ForecastSnapshot first = ForecastSnapshot.getCurrent(mContext);
+        assertEquals("Error: the snapshot should be for the preferred location",
+                location, first.locationSetting);
+        assertEquals("Error: days before today should be skipped",
+                2, first.getDaysFrom(System.currentTimeMillis()).size());
+        assertEquals("Error: today's forecast wasn't found", 20.0, first.getToday().maxTemp);
+        assertSame("Error: the snapshot should be kept between reads",
+                first, ForecastSnapshot.getCurrent(mContext));
+
+        days.set(1, createDay(today, 25));
+        ForecastSnapshot.publish(mContext, location, days);
+        ForecastSnapshot second = ForecastSnapshot.getCurrent(mContext);
+        assertTrue("Error: publishing should bump the version", second.version > first.version);
+        assertEquals("Error: the published forecast wasn't used", 25.0, second.getToday().maxTemp);
+    }
+
+    public void testPublishIgnoresOtherLocations() {
+        String location = Utility.getPreferredLocation(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        List<ContentValues> days = new ArrayList<ContentValues>();
+        days.add(createDay(today, 20));
+        ForecastSnapshot.publish(mContext, location, days);
+        ForecastSnapshot before = ForecastSnapshot.getCurrent(mContext);
+
+        days.set(0, createDay(today, 99));
+        ForecastSnapshot.publish(mContext, location + "-not-preferred", days);
+        assertSame("Error: a forecast for another location replaced the snapshot",
+                before, ForecastSnapshot.getCurrent(mContext));
+    }
+}
@@ -16,20 +16,25 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +517,220 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Storing a forecast that is already in the database should leave the rows alone, and
+        storing one with a single changed day should only touch that day, keeping its _ID.
+     */
+    public void testBulkUpsertOnlyWritesChangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Bundle result = bulkUpsert(createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.RESULT_INSERTED));
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_UPDATED));
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_UNCHANGED));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // The same forecast again: nothing to write
+        result = bulkUpsert(createBulkInsertWeatherValues(locationRowId));
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_INSERTED));
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.RESULT_UNCHANGED));
+        assertEquals("Error: an unchanged bulk insert should report no rows written", 0,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        createBulkInsertWeatherValues(locationRowId)));
+
+        // One day's high changes
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        result = bulkUpsert(changedValues);
+        assertEquals(0, result.getInt(WeatherEntry.RESULT_INSERTED));
+        assertEquals(1, result.getInt(WeatherEntry.RESULT_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, result.getInt(WeatherEntry.RESULT_UNCHANGED));
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            assertEquals("Error: upserting changed the _ID of row " + i,
+                    ids[i], cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            TestUtilities.validateCurrentRecord("testBulkUpsertOnlyWritesChangedRows.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        A batch of weather inserts is applied in one transaction: rows already stored are left
+        alone, and a batch with a failing operation stores none of its rows.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createWeatherInsertOperations(createBulkInsertWeatherValues(locationRowId)));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // The same rows again, with one day changed and an operation that fails at the end
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        ArrayList<ContentProviderOperation> operations =
+                createWeatherInsertOperations(changedValues);
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValues(testValues)
+                .withSelection(LocationEntry._ID + " = ?", new String[]{"-1"})
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed on its last operation");
+        } catch (OperationApplicationException expected) {
+        }
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        ContentValues[] originalValues = createBulkInsertWeatherValues(locationRowId);
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            assertEquals("Error: applying the batch changed the _ID of row " + i,
+                    ids[i], cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, originalValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Upserting a location returns the same _ID for the same location setting, updates the
+        stored values when they change, and stays correct after the location table is cleared.
+     */
+    public void testUpsertLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = upsertLocation(testValues);
+        assertTrue("Error: upserting a new location should insert it", locationRowId > 0);
+        assertEquals("Error: upserting an existing location should return its _ID",
+                locationRowId, upsertLocation(testValues));
+
+        ContentValues renamedValues = new ContentValues(testValues);
+        renamedValues.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        assertEquals(locationRowId, upsertLocation(renamedValues));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: upserting the same location should keep a single row",
+                1, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testUpsertLocation.  Error validating LocationEntry",
+                cursor, renamedValues);
+        cursor.close();
+
+        // Clearing the table must not leave the old _ID behind in the cache
+        deleteAllRecordsFromProvider();
+        long newLocationRowId = upsertLocation(testValues);
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(newLocationRowId, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        A location a batch inserts only becomes known once the batch commits, so a batch that
+        rolls back leaves nothing behind that resolves to the _ID it was given.
+     */
+    public void testRolledBackBatchForgetsLocation() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(testValues)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValues(testValues)
+                .withSelection(LocationEntry._ID + " = ?", new String[]{"-1"})
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed on its last operation");
+        } catch (OperationApplicationException expected) {
+        }
+
+        long locationRowId = upsertLocation(testValues);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertTrue("Error: upserting after the rollback should insert the location",
+                cursor.moveToFirst());
+        assertEquals(locationRowId, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        An _ID the cache remembers for a row that no longer exists is noticed and forgotten, and
+        the location is inserted again rather than resolved to the missing row.
+     */
+    public void testUpsertLocationWithStaleCachedId() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        String locationSetting = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        long staleId = 12345;
+        LocationIdCache.getInstance(mContext).put(locationSetting, staleId);
+
+        long locationRowId = upsertLocation(testValues);
+        assertTrue("Error: upserting over a stale _ID should insert the location",
+                locationRowId > 0 && locationRowId != staleId);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        assertEquals("Error: upserting over a stale _ID should leave a single row",
+                1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId, cursor.getLong(0));
+        cursor.close();
+        assertEquals("Error: the stale _ID should have been replaced in the cache",
+                locationRowId, LocationIdCache.getInstance(mContext).get(locationSetting));
+    }
+
+    private long upsertLocation(ContentValues values) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(LocationEntry.EXTRA_VALUES, values);
+        return mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                LocationEntry.METHOD_UPSERT_LOCATION, null, extras)
+                .getLong(LocationEntry.RESULT_ID);
+    }
+
+    private static ArrayList<ContentProviderOperation> createWeatherInsertOperations(
+            ContentValues[] values) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues value : values) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .build());
+        }
+        return operations;
+    }
+
+    private Bundle bulkUpsert(ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, values);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_BULK_UPSERT, null, extras);
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the query behind every URI the provider serves, and on the
+    statements that drop past days, and fails if any of them scans a whole table or sorts in a
+    temporary b-tree instead of walking an index.  Then times the forecast query for one
+    location among 1, 100 and 10,000, with the index and with it disabled.  The benchmark
+    results are written to the log under this class name.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int[] BENCHMARK_LOCATIONS = {1, 100, 10000};
+    private static final int NUM_DAYS = 14;
+    private static final int QUERY_ITERATIONS = 50;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer; either without an index
+    private static final Pattern FULL_SCAN =
+            Pattern.compile("^SCAN (TABLE )?\\w+(?!.*USING (COVERING )?INDEX).*$");
+    private static final Pattern TEMP_SORT = Pattern.compile("USE TEMP B-TREE");
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWeatherWithLocationPlan() {
+        assertIndexed("weather/*", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingSelection, null, null, SORT_ORDER, null),
+                "94043");
+    }
+
+    public void testWeatherWithLocationAndStartDatePlan() {
+        assertIndexed("weather/*?date=", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                SORT_ORDER, null),
+                "94043", Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    public void testWeatherWithLocationAndDatePlan() {
+        assertIndexed("weather/*/#", WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAndDaySelection, null, null, SORT_ORDER, null),
+                "94043", Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    public void testWeatherPlan() {
+        // The weather URI takes any selection; this is the one WeatherIngest makes for each
+        // location it stores
+        assertIndexed("weather", "SELECT * FROM " + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                "1");
+    }
+
+    public void testLocationPlan() {
+        // The lookup WeatherProvider makes to resolve a location setting to its id
+        assertIndexed("location", "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                        + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                "94043");
+    }
+
+    public void testRetentionPlans() {
+        // What WeatherRetention runs for each location an ingest stores
+        String[] args = {"1", Long.toString(TestUtilities.TEST_DATE)};
+        assertIndexed("retention compact", WeatherRetention.SQL_COMPACT, args);
+        assertIndexed("retention delete", WeatherRetention.SQL_DELETE_PAST, args);
+        assertIndexed("retention trim", WeatherRetention.SQL_TRIM_HISTORY, args);
+    }
+
+    public void testQueryBenchmark() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String indexed = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                SORT_ORDER, null);
+        // The same join with SQLite told not to use any index on the weather table
+        String unindexed = indexed.replaceFirst(
+                "\\b" + WeatherEntry.TABLE_NAME + " INNER JOIN",
+                WeatherEntry.TABLE_NAME + " NOT INDEXED INNER JOIN");
+        assertFalse("Error: couldn't disable the index for comparison", indexed.equals(unindexed));
+
+        int inserted = 0;
+        for (int locations : BENCHMARK_LOCATIONS) {
+            insertLocations(db, inserted, locations);
+            inserted = locations;
+
+            // Ask for a location in the middle of the table
+            String[] args = {locationSetting(locations / 2),
+                    Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))};
+            assertEquals(NUM_DAYS, countRows(db, indexed, args));
+            assertEquals(NUM_DAYS, countRows(db, unindexed, args));
+            long indexedNanos = timeQuery(db, indexed, args, QUERY_ITERATIONS);
+            long unindexedNanos = timeQuery(db, unindexed, args, QUERY_ITERATIONS);
+
+            Log.i(LOG_TAG, String.format(
+                    "%d locations (%d rows): indexed %.1f us/query, unindexed %.1f us/query",
+                    locations, locations * NUM_DAYS,
+                    indexedNanos / 1e3 / QUERY_ITERATIONS,
+                    unindexedNanos / 1e3 / QUERY_ITERATIONS));
+        }
+    }
+
+    private void assertIndexed(String uri, String sql, String... args) {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            assertTrue("Error: no query plan for " + uri, cursor.getCount() > 0);
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                Log.d(LOG_TAG, uri + ": " + detail);
+                assertFalse("Error: " + uri + " scans a whole table: " + detail,
+                        FULL_SCAN.matcher(detail).matches());
+                assertFalse("Error: " + uri + " sorts without an index: " + detail,
+                        TEMP_SORT.matcher(detail).find());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds locations {@code from} up to {@code to}, each with {@link #NUM_DAYS} days.
+     */
+    private void insertLocations(SQLiteDatabase db, int from, int to) {
+        WeatherIngest ingest = new WeatherIngest(db);
+        db.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+                assertTrue(locationId != -1);
+                for (int day = 0; day < NUM_DAYS; day++) {
+                    ingest.insert(locationId,
+                            WeatherContract.normalizeDate(TestUtilities.TEST_DATE + day * DAY_IN_MILLIS),
+                            "Asteroids", 321, 65, 75, 1.2, 1.3, 5.5, 1.1);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+    }
+
+    private static int countRows(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the nanoseconds taken to run the query and read every row, {@code iterations}
+     * times
+     */
+    private static long timeQuery(SQLiteDatabase db, String sql, String[] args, int iterations) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            Cursor cursor = db.rawQuery(sql, args);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    private static String locationSetting(int i) {
+        return "loc" + i;
+    }
+}
@@ -24,6 +24,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
@@ -39,6 +40,17 @@ public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
 
+    /*
+        The normalized date the given number of days from today, worked out the way the sync
+        adapter works out each day of a forecast.
+     */
+    static long dateFromToday(int days) {
+        Time time = new Time();
+        time.setToNow();
+        int julianToday = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        return time.setJulianDay(julianToday + days);
+    }
+
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
         validateCurrentRecord(error, valueCursor, expectedValues);
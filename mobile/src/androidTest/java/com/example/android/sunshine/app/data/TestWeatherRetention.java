@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Storing a forecast drops the days it has moved past for that location, in the same
+    transaction, and keeps them as history when the location has a history window.
+ */
+public class TestWeatherRetention extends AndroidTestCase {
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testBulkInsertDropsPastDays() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 3));
+        // A day left over from an earlier sync
+        insertDay(-1);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        assertEquals("Error: the same forecast again should write nothing", 0,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 3)));
+        // Observers still hear about the day that was dropped
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertDays(0, 1, 2);
+    }
+
+    public void testApplyBatchDropsPastDays() throws Exception {
+        insertDay(-2);
+        insertDay(-1);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues day : createDays(0, 2)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertDays(0, 1);
+    }
+
+    public void testStoringLaterDaysKeepsToday() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 4));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(2, 1));
+
+        assertDays(0, 1, 2, 3);
+    }
+
+    public void testHistoryWindowKeepsPastDays() {
+        setHistoryDays(2);
+        insertDay(-3);
+        insertDay(-2);
+        insertDay(-1);
+
+        TestUtilities.TestContentObserver historyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HistoryEntry.CONTENT_URI, true,
+                historyObserver);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 2));
+        historyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(historyObserver);
+
+        assertDays(0, 1);
+        // The two days inside the window, summarized; the one before it is gone
+        Cursor cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                null, null, null, HistoryEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: the history should hold the days inside the window",
+                2, cursor.getCount());
+        ContentValues[] expected = createDays(-2, 2);
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            ContentValues summary = new ContentValues();
+            summary.put(HistoryEntry.COLUMN_LOC_KEY, mLocationId);
+            summary.put(HistoryEntry.COLUMN_DATE, expected[i].getAsLong(WeatherEntry.COLUMN_DATE));
+            summary.put(HistoryEntry.COLUMN_WEATHER_ID,
+                    expected[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+            summary.put(HistoryEntry.COLUMN_MIN_TEMP,
+                    expected[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+            summary.put(HistoryEntry.COLUMN_MAX_TEMP,
+                    expected[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+            TestUtilities.validateCurrentRecord("Error validating history day " + i,
+                    cursor, summary);
+        }
+        cursor.close();
+
+        // Without a window the history goes with the next forecast
+        setHistoryDays(0);
+        insertDay(-1);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(0, 2));
+        cursor = mContext.getContentResolver().query(HistoryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: the history should be cleared once the window is removed",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    private void setHistoryDays(int days) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_HISTORY_DAYS, days);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationId)}));
+    }
+
+    /**
+     * Inserts a single day outside of any ingest, so nothing is dropped.
+     */
+    private void insertDay(int day) {
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createDays(day, 1)[0]);
+    }
+
+    private void assertDays(int... days) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Error: wrong number of days left", days.length, cursor.getCount());
+            for (int day : days) {
+                assertTrue(cursor.moveToNext());
+                assertEquals("Error: expected day " + day, TestUtilities.dateFromToday(day),
+                        cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return {@code count} days of weather starting {@code first} days from today
+     */
+    private ContentValues[] createDays(int first, int count) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = TestUtilities.createWeatherValues(mLocationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.dateFromToday(first + i));
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + first + i);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65 - first - i);
+        }
+        return days;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/*
+    Checks that the streaming ForecastJsonParser reads the same values as the JSONObject code it
+    replaced, and compares the two on 14, 16 and 500 day responses.  The benchmark results are
+    written to the log under this class name.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int[] BENCHMARK_DAYS = {14, 16, 500};
+    private static final int BENCHMARK_WARMUP = 5;
+    private static final int BENCHMARK_RUNS = 20;
+
+    /*
+        Collects the parsed values as doubles so both parsers can be compared field by field.
+     */
+    static class CollectingHandler implements ForecastJsonParser.Handler {
+        String cityName;
+        double lat;
+        double lon;
+        final ArrayList<double[]> days = new ArrayList<double[]>();
+        final ArrayList<String> descriptions = new ArrayList<String>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int dayIndex, ForecastJsonParser.DayForecast day) {
+            assertEquals("Error: days were not reported in order", days.size(), dayIndex);
+            days.add(new double[]{day.pressure, day.humidity, day.windSpeed, day.windDirection,
+                    day.high, day.low, day.weatherId});
+            descriptions.add(day.description);
+        }
+    }
+
+    public void testMatchesJsonObjectParser() throws Exception {
+        String json = TestForecastPayloads.createForecastJson(16);
+
+        CollectingHandler streamed = new CollectingHandler();
+        int code = new ForecastJsonParser().parse(new StringReader(json), streamed);
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+
+        CollectingHandler tree = new CollectingHandler();
+        parseWithJsonObject(json, tree);
+
+        assertEquals(TestForecastPayloads.TEST_CITY, streamed.cityName);
+        assertEquals(tree.cityName, streamed.cityName);
+        assertEquals(tree.lat, streamed.lat);
+        assertEquals(tree.lon, streamed.lon);
+        assertEquals(16, streamed.days.size());
+        assertEquals(tree.days.size(), streamed.days.size());
+        for (int i = 0; i < tree.days.size(); i++) {
+            double[] expected = tree.days.get(i);
+            double[] actual = streamed.days.get(i);
+            for (int field = 0; field < expected.length; field++) {
+                assertEquals("Error: day " + i + " field " + field + " differs",
+                        expected[field], actual[field]);
+            }
+            assertEquals(tree.descriptions.get(i), streamed.descriptions.get(i));
+        }
+    }
+
+    public void testErrorCode() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        int code = new ForecastJsonParser().parse(
+                new StringReader(TestForecastPayloads.NOT_FOUND_JSON), handler);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, code);
+        assertEquals(0, handler.days.size());
+    }
+
+    public void testErrorCodeAfterList() throws Exception {
+        // The days come before the "cod" that says they aren't valid
+        String json = TestForecastPayloads.createForecastJson(3)
+                .replace("\"cod\":\"200\",", "");
+        json = json.substring(0, json.length() - 1) + ",\"cod\":\"500\"}";
+        CollectingHandler handler = new CollectingHandler();
+        int code = new ForecastJsonParser().parse(new StringReader(json), handler);
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, code);
+        assertEquals("Error: no days should be reported for an error document",
+                0, handler.days.size());
+        assertNull(handler.cityName);
+    }
+
+    public void testMaxDays() throws Exception {
+        CollectingHandler handler = new CollectingHandler();
+        new ForecastJsonParser().parse(
+                new StringReader(TestForecastPayloads.createForecastJson(16)), handler, 14);
+        assertEquals("Error: only the days asked for should be reported", 14, handler.days.size());
+    }
+
+    public void testMissingDayValues() throws Exception {
+        String json = TestForecastPayloads.createForecastJson(2);
+        // Each value we store, taken out of the second day in turn
+        String[] missing = {"\"dt\":1419120000,", "\"min\":9.25,", "\"max\":18.75,",
+                "\"id\":801,", "\"pressure\":1013.4,", "\"humidity\":41,"};
+        for (String value : missing) {
+            assertTrue("Error: the payload should contain " + value, json.contains(value));
+            try {
+                new ForecastJsonParser().parse(new StringReader(json.replace(value, "")),
+                        new CollectingHandler());
+                fail("Error: a day without " + value + " should not parse");
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testMalformedForecast() throws Exception {
+        try {
+            new ForecastJsonParser().parse(
+                    new StringReader("{\"city\":{\"name\":\"x\"},\"list\":[{\"pressure\":1013.2,]}"),
+                    new CollectingHandler());
+            fail("Error: a malformed forecast should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testParserBenchmark() throws Exception {
+        for (int numDays : BENCHMARK_DAYS) {
+            byte[] payload = TestForecastPayloads.createForecastBytes(numDays);
+
+            for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+                runStreaming(payload);
+                runJsonObject(payload);
+            }
+
+            long[] streaming = measure(payload, true);
+            long[] jsonObject = measure(payload, false);
+
+            Log.i(LOG_TAG, String.format(
+                    "%d days (%d bytes): streaming %.3f ms, %d bytes allocated; "
+                            + "JSONObject %.3f ms, %d bytes allocated",
+                    numDays, payload.length,
+                    streaming[0] / 1e6, streaming[1],
+                    jsonObject[0] / 1e6, jsonObject[1]));
+        }
+    }
+
+    /*
+        Returns the mean time in nanoseconds and mean bytes allocated by this thread per parse.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(byte[] payload, boolean streaming) throws Exception {
+        long totalNanos = 0;
+        long totalBytes = 0;
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < BENCHMARK_RUNS; i++) {
+                Debug.resetThreadAllocSize();
+                long start = SystemClock.elapsedRealtimeNanos();
+                if (streaming) {
+                    runStreaming(payload);
+                } else {
+                    runJsonObject(payload);
+                }
+                totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+                totalBytes += Debug.getThreadAllocSize();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return new long[]{totalNanos / BENCHMARK_RUNS, totalBytes / BENCHMARK_RUNS};
+    }
+
+    private void runStreaming(byte[] payload) throws IOException, JSONException {
+        new ForecastJsonParser().parse(
+                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload),
+                        TestForecastPayloads.UTF_8)),
+                new CountingHandler());
+    }
+
+    private void runJsonObject(byte[] payload) throws IOException, JSONException {
+        // This is the path the sync adapter used to take: copy the body into a String, then
+        // build the whole tree before pulling the values out.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(payload), TestForecastPayloads.UTF_8));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        parseWithJsonObject(buffer.toString(), new CountingHandler());
+    }
+
+    private static class CountingHandler implements ForecastJsonParser.Handler {
+        int count;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, ForecastJsonParser.DayForecast day) {
+            count++;
+        }
+    }
+
+    private static void parseWithJsonObject(String json, ForecastJsonParser.Handler handler)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(json);
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+        handler.onCity(cityJson.getString("name"),
+                cityCoord.getDouble("lat"), cityCoord.getDouble("lon"));
+
+        ForecastJsonParser.DayForecast day = new ForecastJsonParser.DayForecast();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            day.pressure = dayForecast.getDouble("pressure");
+            day.humidity = dayForecast.getInt("humidity");
+            day.windSpeed = dayForecast.getDouble("speed");
+            day.windDirection = dayForecast.getDouble("deg");
+
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            day.description = weatherObject.getString("main");
+            day.weatherId = weatherObject.getInt("id");
+
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            day.high = temperatureObject.getDouble("max");
+            day.low = temperatureObject.getDouble("min");
+            handler.onDay(i, day);
+        }
+    }
+}
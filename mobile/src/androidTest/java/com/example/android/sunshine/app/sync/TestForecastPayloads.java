@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.nio.charset.Charset;
+
+/*
+    Recorded-style OpenWeatherMap daily forecast responses used by the sync tests and benchmarks.
+    The days follow the layout of a real response, with the values varied per day so that no two
+    rows are identical.
+ */
+public class TestForecastPayloads {
+    static final String TEST_CITY = "Mountain View";
+    static final double TEST_LAT = 37.3861;
+    static final double TEST_LON = -122.0839;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static String createForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder(256 + numDays * 320);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(TEST_CITY)
+                .append("\",\"coord\":{\"lon\":").append(TEST_LON)
+                .append(",\"lat\":").append(TEST_LAT)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        long dt = 1419033600L;
+        for (int i = 0; i < numDays; i++, dt += 86400) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(dt)
+                    .append(",\"temp\":{\"day\":").append(14.5 + i % 7)
+                    .append(",\"min\":").append(8.25 + i % 5)
+                    .append(",\"max\":").append(17.75 + i % 9)
+                    .append(",\"night\":9.1,\"eve\":13.3,\"morn\":8.6},")
+                    .append("\"pressure\":").append(1012.4 + i % 11)
+                    .append(",\"humidity\":").append(40 + i % 50)
+                    .append(",\"weather\":[{\"id\":").append(800 + i % 5)
+                    .append(",\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}]")
+                    .append(",\"speed\":").append(2.5 + (i % 13) / 10.0)
+                    .append(",\"deg\":").append((i * 37) % 360)
+                    .append(",\"clouds\":").append(i % 100)
+                    .append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    static byte[] createForecastBytes(int numDays) {
+        return createForecastJson(numDays).getBytes(UTF_8);
+    }
+
+    static final String NOT_FOUND_JSON = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+}
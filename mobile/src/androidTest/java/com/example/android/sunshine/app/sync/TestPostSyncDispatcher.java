@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestPostSyncDispatcher extends AndroidTestCase {
+
+    private static final long TEST_TIMEOUT_SECONDS = 5;
+
+    /*
+        A task that hangs or throws must not hold up or break the tasks dispatched with it, and
+        the hanging one must be interrupted once its timeout expires.
+     */
+    public void testTasksAreIsolated() throws InterruptedException {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(3);
+        SyncRecord record = new SyncRecord();
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        dispatcher.dispatch("Hanging task", 200, record, SyncRecord.STAGE_SEND_TO_WEAR,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(TimeUnit.SECONDS.toMillis(60));
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                    }
+                });
+        dispatcher.dispatch("Failing task", 1000, record, SyncRecord.STAGE_UPDATE_MUZEI,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("expected");
+                    }
+                });
+        dispatcher.dispatch("Quick task", 1000, record, SyncRecord.STAGE_UPDATE_WIDGETS,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        finished.countDown();
+                    }
+                });
+
+        assertTrue("Error: the quick task was held up by the others",
+                finished.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("Error: the hanging task was not interrupted by its timeout",
+                interrupted.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /*
+        A task waiting for a busy worker must not use up its timeout before it starts.
+     */
+    public void testTimeoutStartsWhenTaskRuns() throws InterruptedException {
+        PostSyncDispatcher dispatcher = new PostSyncDispatcher(1);
+        SyncRecord record = new SyncRecord();
+
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        // Holds the only worker for longer than the next task's timeout
+        dispatcher.dispatch("Slow task", 2000, record, SyncRecord.STAGE_SEND_TO_WEAR,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                            // the test fails below
+                        }
+                    }
+                });
+        dispatcher.dispatch("Queued task", 200, record, SyncRecord.STAGE_UPDATE_WIDGETS,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        finished.countDown();
+                    }
+                });
+
+        assertTrue("Error: the queued task timed out before it got a worker",
+                finished.await(TEST_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestRemoteSyncTrigger extends AndroidTestCase {
+
+    private static final long NOW = 1450000000000L;
+    private static final long WINDOW = RemoteSyncTrigger.MIN_INTERVAL_MILLIS;
+
+    public void testIsWithin() {
+        assertTrue("Error: a time just inside the window should count",
+                RemoteSyncTrigger.isWithin(NOW, NOW - WINDOW + 1, WINDOW));
+        assertFalse("Error: a time at the edge of the window shouldn't count",
+                RemoteSyncTrigger.isWithin(NOW, NOW - WINDOW, WINDOW));
+        assertFalse("Error: never having synced shouldn't count",
+                RemoteSyncTrigger.isWithin(NOW, 0, WINDOW));
+        assertFalse("Error: a time in the future means the clock was set back",
+                RemoteSyncTrigger.isWithin(NOW, NOW + 1000, WINDOW));
+    }
+}
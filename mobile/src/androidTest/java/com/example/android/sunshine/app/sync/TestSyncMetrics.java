@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    public void testRingBufferKeepsNewestRecords() {
+        SyncMetrics metrics = new SyncMetrics(4);
+        SyncRecord[] records = new SyncRecord[6];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new SyncRecord();
+            records[i].setRowsStored(i);
+            records[i].finish();
+            metrics.add(records[i]);
+        }
+
+        List<SyncRecord> kept = metrics.getRecords();
+        assertEquals("Error: the ring buffer should hold its capacity", 4, kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            assertSame("Error: records should be returned oldest first",
+                    records[i + 2], kept.get(i));
+        }
+    }
+
+    public void testDump() {
+        SyncMetrics metrics = new SyncMetrics(8);
+        SyncRecord record = new SyncRecord();
+        record.addStage(SyncRecord.STAGE_PARSE, SystemClock.elapsedRealtimeNanos() - 5000000);
+        record.addBytesParsed(1234);
+        record.setLocations(2);
+        record.setRowsStored(28);
+        record.setStatus(SunshineSyncAdapter.LOCATION_STATUS_OK);
+        record.finish();
+        metrics.add(record);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+        String dump = out.toString();
+        assertTrue("Error: the dump should count the records", dump.startsWith("Sync records: 1"));
+        assertTrue("Error: the dump should have a percentile line per stage",
+                dump.contains("\nparse,"));
+        assertTrue("Error: the dump should list the record",
+                dump.contains(",1234,2,28," + SunshineSyncAdapter.LOCATION_STATUS_OK));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Drives the whole sync pipeline (parse, location lookup and batch insert, with the cleanup
+    and the updates that follow handed to the PostSyncDispatcher) against a ReplayForecastSource, and logs syncs per second and latency
+    percentiles under this class name.
+ */
+public class TestSyncThroughput extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncThroughput.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final int WARMUP_SYNCS = 10;
+    private static final int BENCHMARK_SYNCS = 200;
+
+    private SunshineSyncAdapter mSyncAdapter;
+    private String mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new ReplayForecastSource(TestForecastPayloads.createForecastBytes(NUM_DAYS)));
+        mLocation = Utility.getPreferredLocation(mContext);
+    }
+
+    public void testReplaySyncStoresForecast() {
+        mSyncAdapter.syncLocation(mLocation);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(mLocation),
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: the replayed forecast was not stored", NUM_DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testMultiLocationSyncStoresEveryLocation() {
+        List<String> locations = Arrays.asList(mLocation, "London,UK", "Paris,FR");
+        mSyncAdapter.syncLocations(locations);
+
+        for (String location : locations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals("Error: the forecast for " + location + " was not stored",
+                    NUM_DAYS, cursor.getCount());
+            cursor.close();
+        }
+    }
+
+    public void testSyncThroughput() {
+        for (int i = 0; i < WARMUP_SYNCS; i++) {
+            mSyncAdapter.syncLocation(mLocation);
+        }
+
+        long[] latencies = new long[BENCHMARK_SYNCS];
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_SYNCS; i++) {
+            long syncStart = SystemClock.elapsedRealtimeNanos();
+            mSyncAdapter.syncLocation(mLocation);
+            latencies[i] = SystemClock.elapsedRealtimeNanos() - syncStart;
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, String.format("%d syncs: %.1f syncs/sec, p50 %.2f ms, p99 %.2f ms",
+                BENCHMARK_SYNCS,
+                BENCHMARK_SYNCS / (elapsed / 1e9),
+                percentile(latencies, 50) / 1e6,
+                percentile(latencies, 99) / 1e6));
+
+        // Where the time went, stage by stage
+        StringWriter stages = new StringWriter();
+        SyncMetrics.getInstance().dump(new PrintWriter(stages));
+        Log.i(LOG_TAG, stages.toString());
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
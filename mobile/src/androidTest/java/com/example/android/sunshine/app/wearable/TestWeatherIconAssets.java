@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wearable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class TestWeatherIconAssets extends AndroidTestCase {
+
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(mContext.getCacheDir(), "test_wear_icons");
+        deleteDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDir();
+        super.tearDown();
+    }
+
+    private void deleteDir() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    public void testIconIsEncodedOnce() {
+        WeatherIconAssets assets = new WeatherIconAssets(mContext.getResources(), mDir);
+        WeatherIconAssets.Icon icon = assets.getIcon(R.drawable.art_clear, 52);
+        assertNotNull("Error: the icon couldn't be encoded", icon);
+
+        Bitmap decoded = BitmapFactory.decodeByteArray(icon.bytes, 0, icon.bytes.length);
+        assertEquals("Error: the icon is the wrong width", 52, decoded.getWidth());
+        assertEquals("Error: the icon is the wrong height", 52, decoded.getHeight());
+
+        assertSame("Error: the icon should come from memory the second time",
+                icon, assets.getIcon(R.drawable.art_clear, 52));
+    }
+
+    public void testIconSurvivesInCacheDir() {
+        WeatherIconAssets assets = new WeatherIconAssets(mContext.getResources(), mDir);
+        WeatherIconAssets.Icon icon = assets.getIcon(R.drawable.art_rain, 52);
+        assets.clearMemory();
+
+        WeatherIconAssets.Icon reloaded =
+                new WeatherIconAssets(mContext.getResources(), mDir).getIcon(R.drawable.art_rain, 52);
+        assertNotSame("Error: the icon should have been read back from disk", icon, reloaded);
+        assertTrue("Error: the icon read from disk doesn't match",
+                Arrays.equals(icon.bytes, reloaded.bytes));
+        assertEquals("Error: the digest should only depend on the bytes",
+                icon.digest, reloaded.digest);
+    }
+
+    public void testKeyIncludesResourceAndSize() {
+        WeatherIconAssets assets = new WeatherIconAssets(mContext.getResources(), mDir);
+        String clear = assets.getIcon(R.drawable.art_clear, 52).digest;
+        assertFalse("Error: different art shouldn't share an icon",
+                clear.equals(assets.getIcon(R.drawable.art_rain, 52).digest));
+        assertFalse("Error: different sizes shouldn't share an icon",
+                clear.equals(assets.getIcon(R.drawable.art_clear, 64).digest));
+    }
+}
@@ -123,6 +123,16 @@ public class SettingsActivity extends PreferenceActivity
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_location_key))) {
+            // Keep the location we're switching away from in sync, so switching back to it
+            // doesn't have to wait for a fresh download.  One the server didn't accept isn't
+            // worth fetching again.
+            String previousLocation = Utility.getPreferredLocation(this);
+            if (!previousLocation.equals(value)
+                    && Utility.getLocationStatus(this) == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                Utility.addSavedLocation(this, previousLocation);
+            }
+        }
         setPreferenceSummary(preference, value);
         return true;
     }
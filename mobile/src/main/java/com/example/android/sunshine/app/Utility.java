@@ -24,9 +24,15 @@ import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 
 public class Utility {
@@ -36,6 +42,79 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    // The most locations, besides the preferred one, that are remembered and kept in sync
+    public static final int MAX_SAVED_LOCATIONS = 5;
+
+    /**
+     * @return the locations the user has followed before, most recent first.  The preferred
+     * location is not part of this list unless it was saved before it was chosen again.
+     */
+    public static List<String> getSavedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), null);
+        List<String> locations = new ArrayList<String>();
+        if (saved == null) {
+            return locations;
+        }
+        try {
+            JSONArray array = new JSONArray(saved);
+            for (int i = 0; i < array.length(); i++) {
+                locations.add(array.getString(i));
+            }
+        } catch (JSONException e) {
+            // Forget a list we can't read rather than failing every sync on it
+            prefs.edit().remove(context.getString(R.string.pref_saved_locations_key)).apply();
+        }
+        return locations;
+    }
+
+    /**
+     * Remembers a location so that it keeps being synced after the user switches away from it.
+     * Only the {@link #MAX_SAVED_LOCATIONS} most recent locations are kept.
+     */
+    public static void addSavedLocation(Context context, String location) {
+        if (location == null || location.trim().length() == 0) {
+            return;
+        }
+        List<String> locations = getSavedLocations(context);
+        locations.remove(location);
+        locations.add(0, location);
+        setSavedLocations(context, locations);
+    }
+
+    /**
+     * Stops syncing a saved location, for when the server doesn't know it.  Does nothing if the
+     * location isn't saved.
+     */
+    public static void removeSavedLocation(Context context, String location) {
+        List<String> locations = getSavedLocations(context);
+        if (locations.remove(location)) {
+            setSavedLocations(context, locations);
+        }
+    }
+
+    private static void setSavedLocations(Context context, List<String> locations) {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < locations.size() && i < MAX_SAVED_LOCATIONS; i++) {
+            array.put(locations.get(i));
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_saved_locations_key), array.toString())
+                .apply();
+    }
+
+    /**
+     * @return every location the sync adapter should refresh: the preferred location first,
+     * followed by the saved ones.
+     */
+    public static List<String> getSyncLocations(Context context) {
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        locations.add(getPreferredLocation(context));
+        locations.addAll(getSavedLocations(context));
+        return new ArrayList<String>(locations);
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
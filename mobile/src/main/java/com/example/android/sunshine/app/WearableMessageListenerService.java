@@ -1,15 +1,28 @@
 package com.example.android.sunshine.app;
 
-import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.RemoteSyncTrigger;
+import com.example.android.sunshine.app.wearable.WeatherWearSender;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.nio.ByteBuffer;
+
 public class WearableMessageListenerService extends WearableListenerService {
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         super.onMessageReceived(messageEvent);
 
         if (messageEvent.getPath().equals("/run_sync"))
-            SunshineSyncAdapter.syncImmediately(getApplicationContext());
+            // The watch sends the sequence number of the forecast it has; older watches send
+            // nothing
+            RemoteSyncTrigger.onSyncRequested(getApplicationContext(),
+                    readSeq(messageEvent.getData()));
+        else if (messageEvent.getPath().equals(WeatherWearSender.WEATHER_RESYNC_PATH))
+            // The watch couldn't apply a delta, so send it the whole forecast we already have
+            WeatherWearSender.send(getApplicationContext(), true);
+    }
+
+    private static int readSeq(byte[] data) {
+        return data != null && data.length >= 4 ? ByteBuffer.wrap(data).getInt() : 0;
     }
 }
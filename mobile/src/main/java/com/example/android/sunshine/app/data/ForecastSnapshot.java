@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable copy of the forecast for the preferred location, kept in memory so that
+ * everything that shows the weather after a sync (the watch, the notification, the widgets and
+ * Muzei) can read it without querying the provider.
+ * <p/>
+ * The sync adapter publishes a new snapshot from the rows it has just stored.  Until one has
+ * been published in this process, or when the preferred location has changed since, the
+ * snapshot is read from the database once and kept.  Every snapshot carries a version that
+ * goes up each time one is published, so readers can tell whether anything changed since they
+ * last looked; the Muzei source uses it to skip publishing the same artwork again.
+ */
+public final class ForecastSnapshot {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_WIND_SPEED = 6;
+    private static final int INDEX_DEGREES = 7;
+
+    private static final AtomicReference<ForecastSnapshot> sCurrent =
+            new AtomicReference<ForecastSnapshot>();
+    private static final AtomicLong sVersion = new AtomicLong();
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        // Normalized, as stored in the database
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double maxTemp;
+        public final double minTemp;
+        public final double humidity;
+        public final double windSpeed;
+        public final double degrees;
+
+        public Day(long date, int weatherId, String shortDesc, double maxTemp, double minTemp,
+                   double humidity, double windSpeed, double degrees) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+            this.humidity = humidity;
+            this.windSpeed = windSpeed;
+            this.degrees = degrees;
+        }
+    }
+
+    public final long version;
+    public final String locationSetting;
+    // Sorted by date
+    private final List<Day> mDays;
+
+    private ForecastSnapshot(long version, String locationSetting, List<Day> days) {
+        this.version = version;
+        this.locationSetting = locationSetting;
+        mDays = Collections.unmodifiableList(days);
+    }
+
+    /**
+     * @return the days from today on, oldest first
+     */
+    public List<Day> getDaysFrom(long now) {
+        long today = WeatherContract.normalizeDate(now);
+        for (int i = 0; i < mDays.size(); i++) {
+            if (mDays.get(i).date >= today) {
+                return mDays.subList(i, mDays.size());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return today's forecast, or null if there isn't one
+     */
+    public Day getToday() {
+        List<Day> days = getDaysFrom(System.currentTimeMillis());
+        return days.isEmpty() ? null : days.get(0);
+    }
+
+    /**
+     * Makes the forecast just stored for a location the current snapshot, if it's the
+     * preferred location.
+     *
+     * @param days The weather rows as they were stored, in date order.
+     */
+    public static void publish(Context context, String locationSetting, List<ContentValues> days) {
+        if (!locationSetting.equals(Utility.getPreferredLocation(context))) {
+            return;
+        }
+        ArrayList<Day> snapshotDays = new ArrayList<Day>(days.size());
+        for (ContentValues values : days) {
+            snapshotDays.add(new Day(
+                    WeatherContract.normalizeDate(values.getAsLong(WeatherEntry.COLUMN_DATE)),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES)));
+        }
+        sCurrent.set(new ForecastSnapshot(sVersion.incrementAndGet(), locationSetting,
+                snapshotDays));
+    }
+
+    /**
+     * @return the snapshot for the preferred location, read from the database if there is no
+     * current one.  Never null, but may hold no days.
+     */
+    public static ForecastSnapshot getCurrent(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        ForecastSnapshot current = sCurrent.get();
+        if (current != null && current.locationSetting.equals(locationSetting)) {
+            return current;
+        }
+
+        ForecastSnapshot loaded = load(context, locationSetting);
+        if (loaded.mDays.isEmpty()) {
+            // Nothing stored yet; look again next time rather than remembering that
+            return loaded;
+        }
+        // Don't replace a snapshot that a sync published while we were reading
+        if (sCurrent.compareAndSet(current, loaded)) {
+            return loaded;
+        }
+        return getCurrent(context);
+    }
+
+    private static ForecastSnapshot load(Context context, String locationSetting) {
+        ArrayList<Day> days = new ArrayList<Day>();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        System.currentTimeMillis()),
+                FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    days.add(new Day(cursor.getLong(INDEX_DATE),
+                            cursor.getInt(INDEX_WEATHER_ID),
+                            cursor.getString(INDEX_SHORT_DESC),
+                            cursor.getDouble(INDEX_MAX_TEMP),
+                            cursor.getDouble(INDEX_MIN_TEMP),
+                            cursor.getDouble(INDEX_HUMIDITY),
+                            cursor.getDouble(INDEX_WIND_SPEED),
+                            cursor.getDouble(INDEX_DEGREES)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ForecastSnapshot(sVersion.incrementAndGet(), locationSetting, days);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the _ID of the row for each location setting, so the provider can resolve a
+ * location without querying the location table.
+ * <p/>
+ * The map is kept in memory and written through to a preferences file, so it survives the
+ * process being killed between syncs.  Only {@link WeatherProvider} and {@link WeatherDbHelper}
+ * change it: the provider as it writes the location table, and the helper whenever the tables
+ * are created from scratch.
+ */
+class LocationIdCache {
+
+    private static final String PREFS_NAME = "location_ids";
+
+    private static LocationIdCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    // Read from the preferences file the first time it's needed
+    private HashMap<String, Long> mIds;
+
+    static synchronized LocationIdCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationIdCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LocationIdCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the _ID of the location, or -1 if it isn't known
+     */
+    synchronized long get(String locationSetting) {
+        Long id = getIds().get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return the location setting of the location with the _ID, or null if it isn't known
+     */
+    synchronized String getLocationSetting(long id) {
+        // There are only ever a handful of locations
+        for (Map.Entry<String, Long> entry : getIds().entrySet()) {
+            if (entry.getValue() == id) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        Long previous = getIds().put(locationSetting, id);
+        if (previous == null || previous != id) {
+            mPrefs.edit().putLong(locationSetting, id).apply();
+        }
+    }
+
+    /**
+     * Forgets the location, for when its row turns out to be gone.
+     */
+    synchronized void remove(String locationSetting) {
+        if (getIds().remove(locationSetting) != null) {
+            // Written straight away, so an _ID that's gone can't come back with the process
+            mPrefs.edit().remove(locationSetting).commit();
+        }
+    }
+
+    synchronized void clear() {
+        if (mIds != null) {
+            mIds.clear();
+        } else {
+            mIds = new HashMap<String, Long>();
+        }
+        // Written straight away, so the _IDs of rows that are gone can't come back with the process
+        mPrefs.edit().clear().commit();
+    }
+
+    private HashMap<String, Long> getIds() {
+        if (mIds == null) {
+            mIds = new HashMap<String, Long>();
+            for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+                if (entry.getValue() instanceof Long) {
+                    mIds.put(entry.getKey(), (Long) entry.getValue());
+                }
+            }
+        }
+        return mIds;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The weather rows a write touched, by location and date, so the provider can notify the
+ * narrowest URIs that cover them instead of the whole weather table.
+ * <p/>
+ * A notification reaches observers of the URI itself, of any URI below it, and of any URI
+ * above it that asked for descendants, which is how cursors register.  So a location with one
+ * changed day is notified as weather/&lt;location&gt;/&lt;date&gt;, which reaches that day's
+ * detail and the location's forecast list, and a location with several is notified once as
+ * weather/&lt;location&gt;, so the forecast list hears about the write once rather than once
+ * per day.  Other locations' observers hear nothing.
+ */
+class WeatherChanges {
+
+    // Dates changed for each location; an empty set means the dates aren't known
+    private final HashMap<Long, HashSet<Long>> mDates = new HashMap<Long, HashSet<Long>>();
+    // Whether rows were changed that can't be pinned to a location
+    private boolean mUnknown;
+
+    void add(long locationId, long date) {
+        HashSet<Long> dates = mDates.get(locationId);
+        if (dates == null) {
+            dates = new HashSet<Long>();
+            mDates.put(locationId, dates);
+        } else if (dates.isEmpty()) {
+            // Already covers the whole location
+            return;
+        }
+        dates.add(date);
+    }
+
+    /**
+     * Records a change to rows of the location on dates that aren't known.
+     */
+    void addLocation(long locationId) {
+        HashSet<Long> dates = mDates.get(locationId);
+        if (dates == null) {
+            mDates.put(locationId, new HashSet<Long>());
+        } else {
+            dates.clear();
+        }
+    }
+
+    /**
+     * Records a change to rows that could be anywhere in the table.
+     */
+    void addUnknown() {
+        mUnknown = true;
+    }
+
+    /**
+     * Records every change in {@code other} as well.
+     */
+    void addAll(WeatherChanges other) {
+        mUnknown |= other.mUnknown;
+        for (Map.Entry<Long, HashSet<Long>> entry : other.mDates.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                addLocation(entry.getKey());
+            } else {
+                for (Long date : entry.getValue()) {
+                    add(entry.getKey(), date);
+                }
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return !mUnknown && mDates.isEmpty();
+    }
+
+    /**
+     * Adds the URIs to notify for the changes to {@code uris}.  A location that can't be found
+     * any more is covered by the weather URI.
+     */
+    void collectUris(SQLiteDatabase db, LocationIdCache locationIds, Collection<Uri> uris) {
+        if (mUnknown) {
+            uris.add(WeatherEntry.CONTENT_URI);
+            return;
+        }
+        ArrayList<Uri> locationUris = new ArrayList<Uri>(mDates.size());
+        for (Map.Entry<Long, HashSet<Long>> entry : mDates.entrySet()) {
+            String locationSetting = locationIds.getLocationSetting(entry.getKey());
+            if (locationSetting == null) {
+                locationSetting = queryLocationSetting(db, entry.getKey());
+            }
+            if (locationSetting == null) {
+                uris.add(WeatherEntry.CONTENT_URI);
+                return;
+            }
+
+            HashSet<Long> dates = entry.getValue();
+            if (dates.size() == 1) {
+                locationUris.add(WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                        dates.iterator().next()));
+            } else {
+                locationUris.add(WeatherEntry.buildWeatherLocation(locationSetting));
+            }
+        }
+        uris.addAll(locationUris);
+    }
+
+    private static String queryLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
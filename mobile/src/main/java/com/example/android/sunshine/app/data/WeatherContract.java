@@ -43,6 +43,7 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +82,16 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // How many past days of weather to keep for this location, as daily summaries in the
+        // history table.  0, the default, drops each day from the database once it has passed.
+        public static final String COLUMN_HISTORY_DAYS = "history_days";
+
+        // Provider call() method that inserts the location passed in EXTRA_VALUES, or updates the
+        // one with the same location setting, and returns its _ID in RESULT_ID.
+        public static final String METHOD_UPSERT_LOCATION = "upsert_location";
+        public static final String EXTRA_VALUES = "values";
+        public static final String RESULT_ID = "id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +137,14 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Provider call() method that stores the rows passed in EXTRA_VALUES the same way
+        // bulkInsert does, and reports how many were inserted, updated and left unchanged.
+        public static final String METHOD_BULK_UPSERT = "bulk_upsert";
+        public static final String EXTRA_VALUES = "values";
+        public static final String RESULT_INSERTED = "inserted";
+        public static final String RESULT_UPDATED = "updated";
+        public static final String RESULT_UNCHANGED = "unchanged";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -165,4 +184,24 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the history table, a summary of each
+       past day kept for the locations with a history window */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "weather_history";
+
+        // The same meanings as the weather table's columns of the same names
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+    }
 }
@@ -16,9 +16,11 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +29,62 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version
+    // and add a migration from the previous version to migrate().
+    static final int DATABASE_VERSION = 4;
+
+    // Databases older than this are recreated rather than migrated
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages of cache per connection, about 2MB at the default 4KB page size; negative would
+    // mean KB instead
+    private static final int CACHE_SIZE_PAGES = 500;
+    // Bytes of the file read through mmap rather than read(); the whole database, normally
+    private static final long MMAP_SIZE_BYTES = 8 * 1024 * 1024;
+
+    private final Context mContext;
+    private final boolean mConcurrent;
+
     public WeatherDbHelper(Context context) {
+        this(context, true);
+    }
+
+    /**
+     * @param concurrent Whether to use write-ahead logging and the tuned settings in
+     *                   {@link #onConfigure}.  Only tests turn it off, to measure the difference.
+     */
+    WeatherDbHelper(Context context, boolean concurrent) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+        mConcurrent = concurrent;
+        // With a write-ahead log, readers see the last committed data while the sync adapter
+        // writes, instead of waiting for it to finish, and the framework keeps a pool of read
+        // connections so the loaders, widgets and Muzei don't wait on each other either
+        setWriteAheadLoggingEnabled(concurrent);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!mConcurrent) {
+            return;
+        }
+        // These apply to the primary connection, which every write goes through; the pool's
+        // read connections keep the framework's defaults.
+        // In WAL mode NORMAL only syncs at checkpoints.  A crash can lose the last transaction
+        // but never corrupts the database, and everything here can be synced again.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_PAGES);
+        // Returns the new size, so it has to be run as a query.  Builds of SQLite without mmap
+        // ignore it.
+        Cursor cursor = db.rawQuery("PRAGMA mmap_size = " + MMAP_SIZE_BYTES, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -45,7 +96,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_HISTORY_DAYS + " INTEGER NOT NULL DEFAULT 0" +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -75,24 +127,134 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Location comes first, so the index behind it also serves every query the
+                // provider makes: one location's days, from a date on, in date order.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // A few columns of each past day, for the locations that keep a history.  See
+        // WeatherRetention.
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+
+        // Any location ids remembered from an earlier database no longer mean anything
+        LocationIdCache.getInstance(mContext).clear();
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        //
+        // Each schema change is a migration from the version before it, so a database several
+        // versions old is brought up to date one step at a time and keeps its rows.  Otherwise
+        // every device would show nothing until it synced, and all of them would sync at once.
+        // SQLiteOpenHelper runs this in one transaction with setting the new version, so a
+        // failed migration leaves the database as it was.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // From before migrations; this database is only a cache for online data, so it's
+            // discarded and refilled by the next sync
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Upgrades the schema from {@code fromVersion} to the version after it.  A migration
+     * describes the schema as it was at that version, not as it is now, so it never changes
+     * once released.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion) {
+        switch (fromVersion) {
+            case 2:
+                migrateWeatherUniqueToLocationFirst(db);
+                break;
+            case 3:
+                migrateAddHistory(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration from database version " + fromVersion);
+        }
+    }
+
+    /**
+     * Version 3: the weather table's unique constraint leads with the location, so its index
+     * serves per-location queries.  SQLite can't alter a constraint, so the table is copied.
+     */
+    private static void migrateWeatherUniqueToLocationFirst(SQLiteDatabase db) {
+        final String columns = WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+        final String newTable = WeatherEntry.TABLE_NAME + "_v3";
+
+        db.execSQL("CREATE TABLE " + newTable + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+        // Keeps the row ids, so anything holding a weather/<id> URI still finds its row
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " + columns +
+                " FROM " + WeatherEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+    }
+
+    /**
+     * Version 4: each location has a history window, 0 for existing ones, and past days can be
+     * kept in the history table.
+     */
+    private static void migrateAddHistory(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                LocationEntry.COLUMN_HISTORY_DAYS + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
     }
 }
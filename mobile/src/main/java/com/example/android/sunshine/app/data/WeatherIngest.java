@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes weather rows into the database, comparing each one to the row already stored for the
+ * same location and date so that only rows whose values actually changed get written.
+ * <p/>
+ * Relying on the table's ON CONFLICT REPLACE would delete and reinsert every row, giving it a
+ * new _ID and rewriting the index pages even when nothing changed.  An ingest is meant to live
+ * for the length of one transaction: it keeps the rows it has read and written in memory, so
+ * the caller must hold the transaction open from the first {@link #upsert} to the last, and
+ * {@link #close} the ingest when it's done.
+ * <p/>
+ * New rows go through an INSERT statement compiled once per ingest, binding the values straight
+ * to it instead of building the SQL again for every row as SQLiteDatabase.insert does.
+ */
+class WeatherIngest {
+
+    // The columns of a complete weather row, in the order they are bound to the insert statement
+    private static final String[] INSERT_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER = buildInsertSql();
+
+    /**
+     * A row as it is stored in the database.
+     */
+    private static final class StoredRow {
+        final long id;
+        final ContentValues values;
+
+        StoredRow(long id, ContentValues values) {
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mInsertStatement;
+
+    // Stored rows by location id and then date, read the first time a location is seen
+    private final HashMap<Long, HashMap<Long, StoredRow>> mStoredRows =
+            new HashMap<Long, HashMap<Long, StoredRow>>();
+
+    // The earliest date passed to upsert for each location
+    private final HashMap<Long, Long> mFirstDates = new HashMap<Long, Long>();
+
+    // The rows inserted or updated through upsert
+    private final WeatherChanges mChanges = new WeatherChanges();
+
+    private int mInserted;
+    private int mUpdated;
+    private int mUnchanged;
+
+    WeatherIngest(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Inserts the row if there isn't one for its location and date yet, updates the columns
+     * that differ if there is, and leaves it alone if every value matches.  The date must
+     * already be normalized.
+     *
+     * @return the _ID of the row, or -1 if it could not be written
+     */
+    long upsert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Without both keys there's nothing to compare against; let the insert fail (or not)
+            // on the table's constraints.
+            long _id = insert(values, null, null);
+            if (_id != -1) {
+                mChanges.addUnknown();
+            }
+            return _id;
+        }
+
+        Long firstDate = mFirstDates.get(locationId);
+        if (firstDate == null || date < firstDate) {
+            mFirstDates.put(locationId, date);
+        }
+
+        HashMap<Long, StoredRow> rowsByDate = getStoredRows(locationId);
+        StoredRow stored = rowsByDate.get(date);
+        if (stored == null) {
+            long _id = insert(values, rowsByDate, date);
+            if (_id != -1) {
+                mChanges.add(locationId, date);
+            }
+            return _id;
+        }
+
+        ContentValues changed = new ContentValues();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            String column = entry.getKey();
+            if (WeatherEntry._ID.equals(column)) {
+                continue;
+            }
+            if (!stored.values.containsKey(column)
+                    || !valuesEqual(stored.values.get(column), entry.getValue())) {
+                changed.putAll(valuesFor(column, values));
+            }
+        }
+
+        if (changed.size() == 0) {
+            mUnchanged++;
+            return stored.id;
+        }
+        int rows = mDb.update(WeatherEntry.TABLE_NAME, changed,
+                WeatherEntry._ID + " = ?", new String[]{Long.toString(stored.id)});
+        if (rows == 0) {
+            return -1;
+        }
+        stored.values.putAll(changed);
+        mUpdated++;
+        mChanges.add(locationId, date);
+        return stored.id;
+    }
+
+    /**
+     * @return the number of rows inserted so far
+     */
+    int getInserted() {
+        return mInserted;
+    }
+
+    /**
+     * @return the number of existing rows updated so far
+     */
+    int getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * @return the number of rows that already matched what was stored
+     */
+    int getUnchanged() {
+        return mUnchanged;
+    }
+
+    /**
+     * @return the number of rows actually written
+     */
+    int getChanged() {
+        return mInserted + mUpdated;
+    }
+
+    /**
+     * @return the rows inserted or updated through {@link #upsert} so far
+     */
+    WeatherChanges getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * @return the earliest date passed to {@link #upsert} for each location, by location id
+     */
+    Map<Long, Long> getFirstDates() {
+        return mFirstDates;
+    }
+
+    /**
+     * Inserts a complete weather row through the compiled statement, without going through
+     * ContentValues.  Unlike {@link #upsert} this doesn't look for an existing row, so the
+     * caller must know the location and date are new.
+     *
+     * @return the _ID of the new row, or -1 if it could not be inserted
+     */
+    long insert(long locationId, long date, String shortDesc, int weatherId,
+                double minTemp, double maxTemp, double humidity, double pressure,
+                double windSpeed, double degrees) {
+        SQLiteStatement statement = getInsertStatement();
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        statement.bindString(3, shortDesc);
+        statement.bindLong(4, weatherId);
+        statement.bindDouble(5, minTemp);
+        statement.bindDouble(6, maxTemp);
+        statement.bindDouble(7, humidity);
+        statement.bindDouble(8, pressure);
+        statement.bindDouble(9, windSpeed);
+        statement.bindDouble(10, degrees);
+        long _id = statement.executeInsert();
+        if (_id != -1) {
+            mInserted++;
+        }
+        return _id;
+    }
+
+    /**
+     * Releases the compiled statement.  The ingest can't be used after this.
+     */
+    void close() {
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+            mInsertStatement = null;
+        }
+    }
+
+    private long insert(ContentValues values, HashMap<Long, StoredRow> rowsByDate, Long date) {
+        long _id;
+        if (isCompleteRow(values)) {
+            _id = insert(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherEntry.COLUMN_DATE),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+            if (_id != -1 && rowsByDate != null) {
+                rowsByDate.put(date, new StoredRow(_id, new ContentValues(values)));
+            }
+            return _id;
+        }
+
+        // Anything else (an explicit _ID, a missing column) takes the general path and is left
+        // to the table's constraints.
+        _id = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        if (_id != -1) {
+            mInserted++;
+            if (rowsByDate != null) {
+                rowsByDate.put(date, new StoredRow(_id, new ContentValues(values)));
+            }
+        }
+        return _id;
+    }
+
+    private SQLiteStatement getInsertStatement() {
+        if (mInsertStatement == null) {
+            mInsertStatement = mDb.compileStatement(SQL_INSERT_WEATHER);
+        }
+        return mInsertStatement;
+    }
+
+    /**
+     * @return true if the values hold every column of the insert statement, all of them
+     * non-null, and nothing else.
+     */
+    private static boolean isCompleteRow(ContentValues values) {
+        if (values.size() != INSERT_COLUMNS.length) {
+            return false;
+        }
+        for (String column : INSERT_COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(INSERT_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+    private HashMap<Long, StoredRow> getStoredRows(long locationId) {
+        HashMap<Long, StoredRow> rowsByDate = mStoredRows.get(locationId);
+        if (rowsByDate != null) {
+            return rowsByDate;
+        }
+
+        rowsByDate = new HashMap<Long, StoredRow>();
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            int idIndex = cursor.getColumnIndex(WeatherEntry._ID);
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                rowsByDate.put(cursor.getLong(dateIndex),
+                        new StoredRow(cursor.getLong(idIndex), readRow(cursor)));
+            }
+        } finally {
+            cursor.close();
+        }
+        mStoredRows.put(locationId, rowsByDate);
+        return rowsByDate;
+    }
+
+    /**
+     * Reads the current row keeping SQLite's storage types, unlike
+     * DatabaseUtils.cursorRowToContentValues which turns numbers into strings.
+     */
+    private static ContentValues readRow(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            String column = cursor.getColumnName(i);
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values.put(column, cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values.put(column, cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values.put(column, cursor.getString(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values.put(column, cursor.getBlob(i));
+                    break;
+                default:
+                    values.putNull(column);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private static ContentValues valuesFor(String column, ContentValues values) {
+        ContentValues single = new ContentValues(1);
+        Object value = values.get(column);
+        if (value == null) {
+            single.putNull(column);
+        } else if (value instanceof byte[]) {
+            single.put(column, (byte[]) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            single.put(column, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            single.put(column, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            single.put(column, (Boolean) value);
+        } else {
+            single.put(column, value.toString());
+        }
+        return single;
+    }
+
+    /**
+     * Compares a stored value to an incoming one the way SQLite would see them once stored: an
+     * int 45 going into a REAL column matches a stored 45.0.
+     */
+    static boolean valuesEqual(Object stored, Object incoming) {
+        if (stored == null || incoming == null) {
+            return stored == incoming;
+        }
+        if (stored instanceof Number && incoming instanceof Number) {
+            Number a = (Number) stored;
+            Number b = (Number) incoming;
+            if (a instanceof Double || a instanceof Float
+                    || b instanceof Double || b instanceof Float) {
+                return a.doubleValue() == b.doubleValue();
+            }
+            return a.longValue() == b.longValue();
+        }
+        if (stored instanceof byte[] && incoming instanceof byte[]) {
+            return Arrays.equals((byte[]) stored, (byte[]) incoming);
+        }
+        if (incoming instanceof Boolean && stored instanceof Number) {
+            return ((Boolean) incoming ? 1 : 0) == ((Number) stored).longValue();
+        }
+        return stored.toString().equals(incoming.toString());
+    }
+}
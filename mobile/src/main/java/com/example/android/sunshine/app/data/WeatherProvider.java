@@ -17,25 +17,60 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private LocationIdCache mLocationIds;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int HISTORY = 400;
+
+    /**
+     * State for a batch being applied on the current thread: the ingest every weather insert in
+     * the batch goes through, and the URIs to notify once the batch has been committed.  The
+     * ingest's changes collect every weather row the batch touches, so they can be turned into
+     * URIs once at the end.
+     */
+    private static final class Batch {
+        final WeatherIngest ingest;
+        final LinkedHashSet<Uri> changedUris = new LinkedHashSet<Uri>();
+        // Location _IDs the batch has resolved.  They only go into the LocationIdCache once the
+        // batch has committed, so other threads never see the _ID of a row that may be rolled
+        // back.
+        final HashMap<String, Long> locationIds = new HashMap<String, Long>();
+
+        Batch(WeatherIngest ingest) {
+            this.ingest = ingest;
+        }
+    }
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Binder calls arrive on several threads, so a batch only applies to the thread running it
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    // Package-private, like the selections below, so tests can check the query plans
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +87,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -130,6 +165,7 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
         return matcher;
     }
 
@@ -140,6 +176,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mLocationIds = LocationIdCache.getInstance(getContext());
         return true;
     }
 
@@ -164,6 +201,8 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HISTORY:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +252,19 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,25 +285,53 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
+                Batch batch = mBatch.get();
+                if (batch != null) {
+                    // Inside a batch the row is upserted, so a row that's already stored with
+                    // the same values is neither rewritten nor reported as a change.
+                    long _id = batch.ingest.upsert(values);
+                    if ( _id <= 0 )
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    return WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                }
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                WeatherChanges changes = new WeatherChanges();
+                Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (locationId != null && date != null) {
+                    changes.add(locationId, date);
+                } else {
+                    changes.addUnknown();
+                }
+                notifyChange(db, changes);
+                return returnUri;
             }
             case LOCATION: {
+                if (mBatch.get() != null) {
+                    // Inside a batch a location is upserted, so the weather rows that follow it
+                    // can take its _ID from a back reference whether it's new or not.
+                    return WeatherContract.LocationEntry.buildLocationUri(upsertLocation(values));
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                    String locationSetting = values.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    if (locationSetting != null) {
+                        mLocationIds.put(locationSetting, _id);
+                    }
+                } else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -260,23 +340,50 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        final boolean allRows = null == selection;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                WeatherChanges changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    if (allRows) {
+                        changes.addUnknown();
+                    } else {
+                        addMatchingRows(db, selection, selectionArgs, changes);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyChange(db, changes);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    // The selection could have matched anything, so forget every location
+                    clearLocationIds();
+                    // and any history kept for them, before a new location takes the _ID
+                    db.delete(WeatherContract.HistoryEntry.TABLE_NAME,
+                            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                                    WeatherContract.LocationEntry._ID + " FROM " +
+                                    WeatherContract.LocationEntry.TABLE_NAME + ")",
+                            null);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -297,51 +404,367 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                WeatherChanges changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    addMatchingRows(db, selection, selectionArgs, changes);
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        // The rows move to a location or date the selection doesn't tell us
+                        changes.addUnknown();
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    notifyChange(db, changes);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0
+                        && (values.containsKey(WeatherContract.LocationEntry._ID)
+                        || values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING))) {
+                    // A location setting now maps to a different row
+                    clearLocationIds();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /*
+        Weather rows are only written when they differ from what is already stored for the same
+        location and date (see WeatherIngest), and observers are only told about it when
+        something was written.  Days that have passed are dropped for each location stored, in
+        the same transaction.  Returns the number of rows inserted or updated.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                return upsertWeather(values).getChanged();
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_BULK_UPSERT.equals(method)) {
+            Parcelable[] parcelables =
+                    extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            WeatherIngest ingest = upsertWeather(values);
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.WeatherEntry.RESULT_INSERTED, ingest.getInserted());
+            result.putInt(WeatherContract.WeatherEntry.RESULT_UPDATED, ingest.getUpdated());
+            result.putInt(WeatherContract.WeatherEntry.RESULT_UNCHANGED, ingest.getUnchanged());
+            return result;
+        }
+        if (WeatherContract.LocationEntry.METHOD_UPSERT_LOCATION.equals(method)) {
+            ContentValues values =
+                    extras.getParcelable(WeatherContract.LocationEntry.EXTRA_VALUES);
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.LocationEntry.RESULT_ID, upsertLocation(values));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Applies the whole batch in one transaction, so a sync covering several locations either
+        stores all of its rows or none of them.  Weather inserts in the batch are upserted
+        through a single WeatherIngest, and observers hear about each changed URI once, after
+        the transaction has been committed, instead of once per operation.  A sync notifies
+        each location it changed once, and leaves the other locations' observers alone.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            // Already inside a batch on this thread; its transaction covers these operations
+            return super.applyBatch(operations);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch(new WeatherIngest(db));
+        ContentProviderResult[] results;
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            WeatherRetention retention = applyRetention(db, batch.ingest);
+            batch.ingest.getChanges().collectUris(db, mLocationIds, batch.changedUris);
+            if (retention.getHistoryChanged() > 0) {
+                batch.changedUris.add(WeatherContract.HistoryEntry.CONTENT_URI);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            mBatch.remove();
+            batch.ingest.close();
+            db.endTransaction();
+        }
+        // The batch's locations are committed, so they can be resolved from the cache now
+        for (Map.Entry<String, Long> locationId : batch.locationIds.entrySet()) {
+            mLocationIds.put(locationId.getKey(), locationId.getValue());
+        }
+        for (Uri uri : batch.changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /*
+        Forgets every cached location _ID, including any the batch on this thread has resolved
+        but not published yet.
+     */
+    private void clearLocationIds() {
+        mLocationIds.clear();
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.locationIds.clear();
+        }
+    }
+
+    /*
+        Tells observers about a change right away, or once the batch commits if one is being
+        applied on this thread.
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+        Tells the observers of the changed weather rows, through the narrowest URIs that cover
+        them (see WeatherChanges), instead of everything watching the weather table.  Inside a
+        batch the changes are added to the batch's, so each URI is notified once for the whole
+        batch.
+     */
+    private void notifyChange(SQLiteDatabase db, WeatherChanges changes) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.ingest.getChanges().addAll(changes);
+            return;
+        }
+        ArrayList<Uri> uris = new ArrayList<Uri>();
+        changes.collectUris(db, mLocationIds, uris);
+        for (Uri uri : uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+        Records the location and date of each weather row the selection matches.
+     */
+    private static void addMatchingRows(SQLiteDatabase db, String selection,
+                                        String[] selectionArgs, WeatherChanges changes) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Inserts the location, or brings the stored row with the same location setting up to
+        date, and returns its _ID.  The SQLite on our older devices has no INSERT ... ON CONFLICT
+        DO UPDATE, so the _ID comes from the LocationIdCache, or from the batch being applied,
+        and the table is only queried the first time a location setting is seen.  An existing
+        row is only written when one of its values differs.  Nothing being written may also mean
+        the remembered row is gone, so then the table is checked, and a stale _ID forgotten.
+     */
+    private long upsertLocation(ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Location is missing its "
+                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = mBatch.get();
+        boolean changed = false;
+        long _id;
+        db.beginTransaction();
+        try {
+            if (batch != null && batch.locationIds.containsKey(locationSetting)) {
+                _id = batch.locationIds.get(locationSetting);
+            } else {
+                _id = mLocationIds.get(locationSetting);
+            }
+            if (_id != -1) {
+                changed = updateLocationIfChanged(db, _id, values);
+                if (!changed && queryLocationId(db, locationSetting) != _id) {
+                    // Not written because the remembered row is gone, not because it's current
+                    if (batch != null) {
+                        batch.locationIds.remove(locationSetting);
+                    }
+                    mLocationIds.remove(locationSetting);
+                    _id = -1;
+                }
+            }
+            if (_id == -1) {
+                _id = queryLocationId(db, locationSetting);
+                if (_id == -1) {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (_id <= 0) {
+                        throw new android.database.SQLException("Failed to insert location "
+                                + locationSetting);
+                    }
+                    changed = true;
+                } else {
+                    changed = updateLocationIfChanged(db, _id, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (batch != null) {
+            // Not committed yet; applyBatch puts it in the cache once it is
+            batch.locationIds.put(locationSetting, _id);
+        } else {
+            mLocationIds.put(locationSetting, _id);
+        }
+        if (changed) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return _id;
+    }
+
+    private static long queryLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Writes the values to the location row, but only if at least one of them differs from
+        what's stored, so resolving a location that hasn't changed costs no write.
+     */
+    private static boolean updateLocationIfChanged(SQLiteDatabase db, long _id,
+                                                   ContentValues values) {
+        ContentValues update = new ContentValues(values);
+        update.remove(WeatherContract.LocationEntry._ID);
+        update.remove(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (update.size() == 0) {
+            return false;
+        }
+
+        //_id = ? AND (city_name IS NOT ? OR coord_lat IS NOT ? OR ...)
+        StringBuilder where = new StringBuilder(WeatherContract.LocationEntry._ID + " = ? AND (");
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(Long.toString(_id));
+        boolean first = true;
+        for (String column : update.keySet()) {
+            if (!first) where.append(" OR ");
+            first = false;
+            Object value = update.get(column);
+            if (value == null) {
+                where.append(column).append(" IS NOT NULL");
+            } else {
+                where.append(column).append(" IS NOT ?");
+                args.add(value.toString());
+            }
+        }
+        where.append(")");
+        return db.update(WeatherContract.LocationEntry.TABLE_NAME, update, where.toString(),
+                args.toArray(new String[args.size()])) > 0;
+    }
+
+    private WeatherIngest upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherIngest ingest = new WeatherIngest(db);
+        WeatherRetention retention;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                ingest.upsert(value);
+            }
+            retention = applyRetention(db, ingest);
+            db.setTransactionSuccessful();
+        } finally {
+            ingest.close();
+            db.endTransaction();
+        }
+        if (!ingest.getChanges().isEmpty()) {
+            notifyChange(db, ingest.getChanges());
+        }
+        if (retention.getHistoryChanged() > 0) {
+            notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        }
+        return ingest;
+    }
+
+    /*
+        Drops the days that have passed for every location the ingest stored weather for, in
+        the caller's transaction, keeping them as history for locations with a history window.
+        A location only loses days before the first day the ingest stored for it, too, so
+        storing an old day doesn't remove the ones after it.  The locations that lost days are
+        added to the ingest's changes.  Returns the closed retention, for the caller to notify
+        observers of the history once the transaction commits.
+     */
+    private static WeatherRetention applyRetention(SQLiteDatabase db, WeatherIngest ingest) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        WeatherRetention retention = new WeatherRetention(db);
+        try {
+            for (Map.Entry<Long, Long> firstDate : ingest.getFirstDates().entrySet()) {
+                if (retention.apply(firstDate.getKey(),
+                        Math.min(today, firstDate.getValue())) > 0) {
+                    ingest.getChanges().addLocation(firstDate.getKey());
+                }
+            }
+        } finally {
+            retention.close();
+        }
+        return retention;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Removes the days a location's forecast has moved past, one location at a time, so the
+ * database doesn't build up an endless history.
+ * <p/>
+ * It runs inside the transaction of the ingest that stored the new days, for just the
+ * locations that ingest touched, and every statement is bounded by location and date so it
+ * walks the (location, date) index instead of testing every row in the table.  A location
+ * with a history window ({@link LocationEntry#COLUMN_HISTORY_DAYS}) has its past days copied
+ * into the history table first, keeping only the columns a summary of the day needs, and
+ * history older than the window is dropped.
+ * <p/>
+ * Like {@link WeatherIngest}, a retention compiles its statements once and is meant to live
+ * for one transaction; {@link #close} it when done.
+ */
+class WeatherRetention {
+
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String SQL_HISTORY_DAYS = "SELECT " + LocationEntry.COLUMN_HISTORY_DAYS
+            + " FROM " + LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?";
+
+    // Package-private, like the provider's selections, so tests can check the query plans
+    static final String SQL_COMPACT = "INSERT INTO " + HistoryEntry.TABLE_NAME + " ("
+            + HistoryEntry.COLUMN_LOC_KEY + ", "
+            + HistoryEntry.COLUMN_DATE + ", "
+            + HistoryEntry.COLUMN_WEATHER_ID + ", "
+            + HistoryEntry.COLUMN_MIN_TEMP + ", "
+            + HistoryEntry.COLUMN_MAX_TEMP + ") SELECT "
+            + WeatherEntry.COLUMN_LOC_KEY + ", "
+            + WeatherEntry.COLUMN_DATE + ", "
+            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+            + WeatherEntry.COLUMN_MAX_TEMP
+            + " FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    static final String SQL_DELETE_PAST = "DELETE FROM " + WeatherEntry.TABLE_NAME
+            + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    static final String SQL_TRIM_HISTORY = "DELETE FROM " + HistoryEntry.TABLE_NAME
+            + " WHERE " + HistoryEntry.COLUMN_LOC_KEY + " = ? AND " + HistoryEntry.COLUMN_DATE + " < ?";
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mHistoryDays;
+    private SQLiteStatement mCompact;
+    private SQLiteStatement mDeletePast;
+    private SQLiteStatement mTrimHistory;
+
+    private int mHistoryChanged;
+
+    WeatherRetention(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Removes the location's days before {@code before}, a normalized date, keeping them in
+     * the history table if the location has a history window.
+     *
+     * @return the number of rows removed from the weather table
+     */
+    int apply(long locationId, long before) {
+        int historyDays = getHistoryDays(locationId);
+        if (historyDays > 0) {
+            mCompact = bind(mCompact, SQL_COMPACT, locationId, before);
+            mHistoryChanged += mCompact.executeUpdateDelete();
+        }
+
+        mDeletePast = bind(mDeletePast, SQL_DELETE_PAST, locationId, before);
+        int deleted = mDeletePast.executeUpdateDelete();
+
+        // With no window this also clears the history of a location whose window was removed
+        mTrimHistory = bind(mTrimHistory, SQL_TRIM_HISTORY, locationId,
+                daysBefore(before, historyDays));
+        mHistoryChanged += mTrimHistory.executeUpdateDelete();
+        return deleted;
+    }
+
+    /**
+     * @return the number of rows added to or removed from the history table so far
+     */
+    int getHistoryChanged() {
+        return mHistoryChanged;
+    }
+
+    /**
+     * Releases the compiled statements.  The retention can't be used after this.
+     */
+    void close() {
+        close(mHistoryDays);
+        close(mCompact);
+        close(mDeletePast);
+        close(mTrimHistory);
+        mHistoryDays = mCompact = mDeletePast = mTrimHistory = null;
+    }
+
+    /**
+     * @return the normalized date {@code days} days before {@code date}, another normalized
+     * date.  A day across a daylight saving change isn't DAY_IN_MILLIS long, so this aims for
+     * the middle of the day and normalizes that.
+     */
+    static long daysBefore(long date, int days) {
+        return WeatherContract.normalizeDate(date - days * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    private int getHistoryDays(long locationId) {
+        if (mHistoryDays == null) {
+            mHistoryDays = mDb.compileStatement(SQL_HISTORY_DAYS);
+        }
+        mHistoryDays.bindLong(1, locationId);
+        try {
+            return Math.max(0, (int) mHistoryDays.simpleQueryForLong());
+        } catch (SQLiteDoneException e) {
+            // Weather for a location that isn't in the location table; keep no history
+            return 0;
+        }
+    }
+
+    private SQLiteStatement bind(SQLiteStatement statement, String sql, long locationId,
+                                 long date) {
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+        }
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        return statement;
+    }
+
+    private static void close(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+}
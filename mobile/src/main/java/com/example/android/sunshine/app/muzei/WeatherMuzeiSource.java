@@ -16,12 +16,11 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -30,13 +29,10 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
+    // The snapshot version and day the artwork was last published for.  The service is
+    // recreated for every update, so these live as long as the process, like the snapshot.
+    private static long sPublishedVersion = -1;
+    private static long sPublishedDate = -1;
 
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
@@ -54,14 +50,19 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
 
     @Override
     protected void onUpdate(int reason) {
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        ForecastSnapshot snapshot = ForecastSnapshot.getCurrent(this);
+        String location = snapshot.locationSetting;
+        ForecastSnapshot.Day today = snapshot.getToday();
+        if (today != null) {
+            if (reason == UPDATE_REASON_OTHER && snapshot.version == sPublishedVersion
+                    && today.date == sPublishedDate) {
+                // A sync that didn't publish a new forecast for this location; the artwork
+                // would be the same
+                return;
+            }
+
+            int weatherId = today.weatherId;
+            String desc = today.shortDesc;
 
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
@@ -72,8 +73,9 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
                         .byline(location)
                         .viewIntent(new Intent(this, MainActivity.class))
                         .build());
+                sPublishedVersion = snapshot.version;
+                sPublishedDate = today.date;
             }
         }
-        cursor.close();
     }
 }
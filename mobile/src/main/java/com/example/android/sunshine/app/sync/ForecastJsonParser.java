@@ -0,0 +1,321 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ * <p/>
+ * Instead of building a JSONObject tree for the whole document, the response is read token by
+ * token and only the values of interest are kept.  The days are held until the whole document
+ * has been read, since the "cod" that says whether they're valid may come after them, and no
+ * more than the number of days asked for are held, so memory use does not grow with the size of
+ * the payload.
+ * <p/>
+ * Like the JSONObject code it replaced, a day missing any of the values we store is an error
+ * rather than a day of zeros.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_DATETIME = "dt";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the values pulled out of the forecast, once the whole document has been read.
+     */
+    public interface Handler {
+        void onCity(String cityName, double lat, double lon);
+
+        void onDay(int dayIndex, DayForecast day);
+    }
+
+    /**
+     * Values collected for a single day.
+     */
+    public static final class DayForecast {
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+    }
+
+    // The city, held until the rest of the document has been read
+    private static final class City {
+        String name;
+        double lat;
+        double lon;
+    }
+
+    // Values every day must have, as bits, with the names used in the error for a missing one
+    private static final int FIELD_DATETIME = 1;
+    private static final int FIELD_PRESSURE = 1 << 1;
+    private static final int FIELD_HUMIDITY = 1 << 2;
+    private static final int FIELD_WINDSPEED = 1 << 3;
+    private static final int FIELD_WIND_DIRECTION = 1 << 4;
+    private static final int FIELD_MAX = 1 << 5;
+    private static final int FIELD_MIN = 1 << 6;
+    private static final int FIELD_DESCRIPTION = 1 << 7;
+    private static final int FIELD_WEATHER_ID = 1 << 8;
+    private static final String[] FIELD_NAMES = {
+            OWM_DATETIME,
+            OWM_PRESSURE,
+            OWM_HUMIDITY,
+            OWM_WINDSPEED,
+            OWM_WIND_DIRECTION,
+            OWM_TEMPERATURE + "." + OWM_MAX,
+            OWM_TEMPERATURE + "." + OWM_MIN,
+            OWM_WEATHER + "[0]." + OWM_DESCRIPTION,
+            OWM_WEATHER + "[0]." + OWM_WEATHER_ID
+    };
+    private static final int REQUIRED_FIELDS = (1 << FIELD_NAMES.length) - 1;
+
+    /**
+     * Parses every day of the forecast read from {@code in}.
+     *
+     * @see #parse(Reader, Handler, int)
+     */
+    public int parse(Reader in, Handler handler) throws IOException, JSONException {
+        return parse(in, handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses the forecast read from {@code in}, calling back into {@code handler} with the city
+     * and then with each day, once the whole document has been read.
+     *
+     * @param maxDays The most days to report; any further days are read but skipped.
+     * @return the "cod" status reported in the document, or {@link HttpURLConnection#HTTP_OK} if
+     * the document doesn't carry one.  The city and days are only reported for an OK document.
+     * @throws IOException   if the stream could not be read
+     * @throws JSONException if the stream does not contain a valid forecast
+     */
+    public int parse(Reader in, Handler handler, int maxDays) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            return readForecast(reader, handler, maxDays);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private int readForecast(JsonReader reader, Handler handler, int maxDays)
+            throws IOException {
+        int code = HttpURLConnection.HTTP_OK;
+        City city = null;
+        ArrayList<DayForecast> days = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // "cod" comes back as a string for some responses and a number for others
+                code = reader.nextInt();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    // Nothing else in an error document is of interest to us, including any
+                    // days read before it
+                    return code;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                city = readCity(reader);
+            } else if (OWM_LIST.equals(name)) {
+                days = readList(reader, maxDays);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (days == null || city == null) {
+            throw new IllegalStateException("Forecast is missing its "
+                    + (days != null ? OWM_CITY : OWM_LIST) + " element");
+        }
+        handler.onCity(city.name, city.lat, city.lon);
+        for (int i = 0; i < days.size(); i++) {
+            handler.onDay(i, days.get(i));
+        }
+        return code;
+    }
+
+    private City readCity(JsonReader reader) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new IllegalStateException("City is missing its " + OWM_CITY_NAME);
+        }
+        City city = new City();
+        city.name = cityName;
+        city.lat = lat;
+        city.lon = lon;
+        return city;
+    }
+
+    private ArrayList<DayForecast> readList(JsonReader reader, int maxDays) throws IOException {
+        ArrayList<DayForecast> days = new ArrayList<DayForecast>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            // Days past maxDays are still read, so a broken one is still an error
+            DayForecast day = readDay(reader);
+            if (days.size() < maxDays) {
+                days.add(day);
+            }
+        }
+        reader.endArray();
+        return days;
+    }
+
+    private DayForecast readDay(JsonReader reader) throws IOException {
+        DayForecast day = new DayForecast();
+        int fields = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                // The date comes from the day's place in the list, but a day without one
+                // isn't a day
+                reader.nextLong();
+                fields |= FIELD_DATETIME;
+            } else if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                fields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextInt();
+                fields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                fields |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                fields |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.high = reader.nextDouble();
+                        fields |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.low = reader.nextDouble();
+                        fields |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        fields |= readWeather(reader, day);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fields != REQUIRED_FIELDS) {
+            int missing = Integer.numberOfTrailingZeros(~fields & REQUIRED_FIELDS);
+            throw new IllegalStateException("Day is missing its " + FIELD_NAMES[missing]);
+        }
+        return day;
+    }
+
+    /**
+     * @return the FIELD_ bits for the values found
+     */
+    private int readWeather(JsonReader reader, DayForecast day) throws IOException {
+        int fields = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                day.description = reader.nextString();
+                fields |= FIELD_DESCRIPTION;
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                day.weatherId = reader.nextInt();
+                fields |= FIELD_WEATHER_ID;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+}
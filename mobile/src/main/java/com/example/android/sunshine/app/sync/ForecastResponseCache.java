@@ -0,0 +1,290 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Disk cache of what we know about the last forecast response for each request URI.
+ * <p/>
+ * Each entry keeps the HTTP validators and a hash of the body, so the next request can be made
+ * conditional and an identical response can be spotted without parsing or storing it again.
+ * The body itself isn't kept: the forecast it held is already in the database.  An entry is
+ * written as a pending one while its response is read, and only becomes the cached entry once
+ * {@link #commit} is called, which the sync adapter does after the forecast has been stored.
+ * That way a response that failed to make it into the database is never mistaken for one that
+ * did.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast";
+    private static final String META_SUFFIX = ".meta";
+    private static final String PENDING_SUFFIX = ".pending";
+
+    // Bump this if the layout of the meta file changes
+    private static final int META_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * What we know about a cached response.
+     */
+    public static final class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final String bodyHash;
+        // The julian day the response was stored on
+        public final int julianDay;
+
+        Entry(String etag, String lastModified, String bodyHash, int julianDay) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bodyHash = bodyHash;
+            this.julianDay = julianDay;
+        }
+    }
+
+    private final File mDirectory;
+
+    public ForecastResponseCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * @return the committed entry for the URI, or null if there isn't one.
+     */
+    public Entry get(String uri) {
+        return readMeta(metaFile(uri));
+    }
+
+    /**
+     * A response body on its way from the network to the parser.  Everything read through it is
+     * also hashed, so the body only has to be read once.  The pending entry for its URI is only
+     * written out by {@link #finish}; closing the stream before that throws it away.
+     */
+    public final class PendingResponse extends FilterInputStream {
+        private final String mUri;
+        private final String mEtag;
+        private final String mLastModified;
+        private final int mJulianDay;
+        private final MessageDigest mDigest = newDigest();
+        private Entry mEntry;
+
+        private PendingResponse(String uri, InputStream body, String etag, String lastModified,
+                                int julianDay) {
+            super(body);
+            mUri = uri;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mJulianDay = julianDay;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mDigest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mDigest.update(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes still have to be hashed, so read them instead
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long skipped = 0;
+            int read;
+            while (skipped < n
+                    && (read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // Rewinding would hash the same bytes twice
+            return false;
+        }
+
+        /**
+         * Reads whatever is left of the body, which after a parse is usually no more than
+         * trailing whitespace, and writes out the pending entry.
+         *
+         * @return the pending entry
+         */
+        public Entry finish() throws IOException {
+            if (mEntry == null) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (read(buffer, 0, buffer.length) != -1) {
+                    // Just passing it through the digest
+                }
+                Entry entry = new Entry(mEtag, mLastModified, toHex(mDigest.digest()), mJulianDay);
+                writeMeta(pending(metaFile(mUri)), entry);
+                mEntry = entry;
+            }
+            return mEntry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (mEntry == null) {
+                    // Not read to the end, so it can't be cached
+                    discard(mUri);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a pending entry for the URI, to be filled in as the response body is read.
+     *
+     * @return a stream over the body that hashes it on the way through
+     */
+    public PendingResponse writePending(String uri, InputStream body, String etag,
+                                        String lastModified, int julianDay) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        return new PendingResponse(uri, body, etag, lastModified, julianDay);
+    }
+
+    /**
+     * Makes the pending entry for the URI the cached one.  Does nothing if there is no pending
+     * entry.
+     */
+    public void commit(String uri) {
+        File pendingMeta = pending(metaFile(uri));
+        if (!pendingMeta.exists()) {
+            return;
+        }
+        if (!pendingMeta.renameTo(metaFile(uri))) {
+            Log.w(LOG_TAG, "Unable to commit cached forecast for " + uri);
+            discard(uri);
+        }
+    }
+
+    /**
+     * Keeps the cached body hash for the URI but replaces its validators, for when the server
+     * sends new validators along with a body we already have.
+     */
+    public void updateValidators(String uri, Entry entry) {
+        try {
+            writeMeta(metaFile(uri), entry);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to update cached validators for " + uri, e);
+            metaFile(uri).delete();
+        }
+    }
+
+    /**
+     * Throws away the pending entry for the URI.
+     */
+    public void discard(String uri) {
+        pending(metaFile(uri)).delete();
+    }
+
+    private Entry readMeta(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != META_VERSION) {
+                return null;
+            }
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            String bodyHash = in.readUTF();
+            int julianDay = in.readInt();
+            return new Entry(etag, lastModified, bodyHash, julianDay);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable cache entry " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void writeMeta(File file, Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(META_VERSION);
+            out.writeBoolean(entry.etag != null);
+            if (entry.etag != null) out.writeUTF(entry.etag);
+            out.writeBoolean(entry.lastModified != null);
+            if (entry.lastModified != null) out.writeUTF(entry.lastModified);
+            out.writeUTF(entry.bodyHash);
+            out.writeInt(entry.julianDay);
+        } finally {
+            out.close();
+        }
+    }
+
+    private File metaFile(String uri) {
+        return new File(mDirectory, key(uri) + META_SUFFIX);
+    }
+
+    private static File pending(File file) {
+        return new File(file.getParentFile(), file.getName() + PENDING_SUFFIX);
+    }
+
+    private static String key(String uri) {
+        MessageDigest digest = newDigest();
+        try {
+            return toHex(digest.digest(uri.getBytes("UTF-8")));
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to provide SHA-1
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = hexDigits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = hexDigits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync adapter gets its raw forecast from.  The live implementation is
+ * {@link OwmForecastSource}; {@link ReplayForecastSource} serves a recorded response so the
+ * ingest pipeline can be driven without the network.
+ */
+public interface ForecastSource {
+
+    /**
+     * Opens the daily forecast for a location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param numDays         The number of days of forecast to ask for.
+     * @param record          Where to add the time spent on the network and the bytes read.
+     * @return a stream over the OpenWeatherMap formatted JSON response, which the caller must
+     * close, or null if the forecast hasn't changed since it was last stored.
+     * @throws IOException if the forecast could not be fetched
+     */
+    InputStream fetch(String locationSetting, int numDays, SyncRecord record) throws IOException;
+
+    /**
+     * Called once the stream returned by the last {@link #fetch} for the location has been
+     * parsed without error, before it's closed.
+     *
+     * @throws IOException if the rest of the response could not be read
+     */
+    void onForecastParsed(String locationSetting, int numDays) throws IOException;
+
+    /**
+     * Called once the forecast returned by the last {@link #fetch} for the location has been
+     * stored, so the source can treat it as current.
+     */
+    void onForecastStored(String locationSetting, int numDays);
+}
@@ -0,0 +1,276 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches the daily forecast from the OpenWeatherMap API, keeping the last response for each
+ * request in a {@link ForecastResponseCache} so unchanged forecasts aren't downloaded and stored
+ * again.
+ */
+public class OwmForecastSource implements ForecastSource {
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    static Uri buildForecastUri(String locationSetting, int numDays) {
+        return Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    private final ForecastResponseCache mCache;
+    // Responses that have been fetched and not closed yet, by request URI
+    private final ConcurrentHashMap<String, Response> mResponses =
+            new ConcurrentHashMap<String, Response>();
+
+    /**
+     * The body of a response as it's handed to the parser.  It owns the connection, which is
+     * disconnected once the body is closed.
+     */
+    private final class Response extends FilterInputStream {
+        private final String mUri;
+        private final HttpURLConnection mConnection;
+        private final ForecastResponseCache.PendingResponse mBody;
+        private final CountingInputStream mCountingStream;
+        private final SyncRecord mRecord;
+        private boolean mFinished;
+
+        /**
+         * @param in the body to hand to the parser: either {@code body} itself or a copy of it
+         *           that has already been read
+         */
+        Response(String uri, HttpURLConnection connection, InputStream in,
+                 ForecastResponseCache.PendingResponse body, CountingInputStream countingStream,
+                 SyncRecord record) {
+            super(in);
+            mUri = uri;
+            mConnection = connection;
+            mBody = body;
+            mCountingStream = countingStream;
+            mRecord = record;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long stageStart = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.read();
+            } finally {
+                mRecord.addStage(SyncRecord.STAGE_BODY_READ, stageStart);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long stageStart = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mRecord.addStage(SyncRecord.STAGE_BODY_READ, stageStart);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long stageStart = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.skip(n);
+            } finally {
+                mRecord.addStage(SyncRecord.STAGE_BODY_READ, stageStart);
+            }
+        }
+
+        void finish() throws IOException {
+            long stageStart = SystemClock.elapsedRealtimeNanos();
+            try {
+                mBody.finish();
+                mFinished = true;
+            } finally {
+                mRecord.addStage(SyncRecord.STAGE_BODY_READ, stageStart);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mResponses.remove(mUri, this);
+            try {
+                super.close();
+                if (in != mBody) {
+                    mBody.close();
+                }
+            } finally {
+                if (!mFinished) {
+                    // Not parsed, so it mustn't be committed
+                    mCache.discard(mUri);
+                }
+                mRecord.addBytesReceived(mCountingStream.getCount());
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    public OwmForecastSource(Context context) {
+        mCache = new ForecastResponseCache(context);
+    }
+
+    /**
+     * Fetches the forecast, making the request conditional on the last response we stored for
+     * the same URI.  Without one to compare with, the body is hashed as the caller parses it,
+     * rather than being downloaded in full first.  With one, a server that ignores the
+     * validators can still send the same forecast again, which only its hash can tell; then the
+     * body, a few kilobytes, is read and hashed before anything parses it.
+     *
+     * @return a stream over the new response, or null if the server answered 304 Not Modified
+     * or sent the same body as last time
+     */
+    @Override
+    public InputStream fetch(String locationSetting, int numDays, SyncRecord record)
+            throws IOException {
+        String uri = buildForecastUri(locationSetting, numDays).toString();
+
+        // Forecast rows are dated relative to the day they're stored on, so a response stored
+        // on an earlier day has to be stored again even if the server hasn't changed it.
+        int today = getJulianDay();
+        ForecastResponseCache.Entry cached = mCache.get(uri);
+        if (cached != null && cached.julianDay != today) {
+            cached = null;
+        }
+
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(uri).openConnection();
+        boolean handedOver = false;
+        try {
+            urlConnection.setRequestMethod("GET");
+            if (cached != null) {
+                if (cached.etag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cached.lastModified);
+                }
+            }
+            long stageStart = SystemClock.elapsedRealtimeNanos();
+            urlConnection.connect();
+            record.addStage(SyncRecord.STAGE_CONNECT, stageStart);
+
+            // Reading the response code waits for the status line and headers
+            stageStart = SystemClock.elapsedRealtimeNanos();
+            int responseCode = urlConnection.getResponseCode();
+            record.addStage(SyncRecord.STAGE_FIRST_BYTE, stageStart);
+
+            if (cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return null;
+            }
+
+            CountingInputStream countingStream = new CountingInputStream(inputStream);
+            ForecastResponseCache.PendingResponse body = mCache.writePending(uri, countingStream,
+                    urlConnection.getHeaderField(HEADER_ETAG),
+                    urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                    today);
+            InputStream in = body;
+            if (cached != null) {
+                stageStart = SystemClock.elapsedRealtimeNanos();
+                byte[] bytes;
+                ForecastResponseCache.Entry fresh;
+                try {
+                    bytes = readFully(body);
+                    fresh = body.finish();
+                } finally {
+                    record.addStage(SyncRecord.STAGE_BODY_READ, stageStart);
+                }
+                if (cached.bodyHash.equals(fresh.bodyHash)) {
+                    // Same forecast as last time; keep any new validators for the next request.
+                    mCache.discard(uri);
+                    mCache.updateValidators(uri, fresh);
+                    body.close();
+                    record.addBytesReceived(countingStream.getCount());
+                    return null;
+                }
+                in = new ByteArrayInputStream(bytes);
+            }
+            Response response = new Response(uri, urlConnection, in, body, countingStream,
+                    record);
+            mResponses.put(uri, response);
+            handedOver = true;
+            return response;
+        } finally {
+            if (!handedOver) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the response and writes out its pending cache entry.
+     */
+    @Override
+    public void onForecastParsed(String locationSetting, int numDays) throws IOException {
+        Response response = mResponses.get(buildForecastUri(locationSetting, numDays).toString());
+        if (response != null) {
+            response.finish();
+        }
+    }
+
+    @Override
+    public void onForecastStored(String locationSetting, int numDays) {
+        mCache.commit(buildForecastUri(locationSetting, numDays).toString());
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static int getJulianDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+}
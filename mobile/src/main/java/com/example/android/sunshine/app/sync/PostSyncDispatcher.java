@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work that follows a sync (the watch, widgets, Muzei and the notification) off the
+ * sync adapter's thread, each task independently of the others.
+ * <p/>
+ * Every task gets its own worker, so a slow image load in one can't hold up the rest, and a
+ * task that throws is logged without affecting anything else.  A task still running when its
+ * timeout expires is interrupted, which makes the blocking Glide loads give up.  The timeout
+ * starts when the task does, so time spent waiting for a worker doesn't count against it.
+ */
+class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    // Enough for every consumer of a sync to run at once
+    private static final int MAX_WORKERS = 5;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static PostSyncDispatcher sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledThreadPoolExecutor mTimeouts;
+
+    static synchronized PostSyncDispatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new PostSyncDispatcher(MAX_WORKERS);
+        }
+        return sInstance;
+    }
+
+    PostSyncDispatcher(int maxWorkers) {
+        mExecutor = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("PostSync"));
+        // Nothing runs between syncs, so let the threads go
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        mTimeouts = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("PostSyncTimeout"));
+        mTimeouts.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mTimeouts.allowCoreThreadTimeOut(true);
+        mTimeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Queues a task to run on its own worker.
+     *
+     * @param name          What the task is, for the log.
+     * @param timeoutMillis How long the task may run before it's interrupted.
+     * @param record        Where to add the time the task took, under {@code stage}.
+     * @param stage         One of the {@link SyncRecord} STAGE_ constants.
+     */
+    void dispatch(final String name, long timeoutMillis, final SyncRecord record,
+                  final int stage, final Runnable task) {
+        mExecutor.execute(new PostSyncTask(name, timeoutMillis, new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtimeNanos();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, name + " failed", e);
+                } finally {
+                    record.addStage(stage, start);
+                    // Don't let a late interrupt from the timeout leak into the next task
+                    Thread.interrupted();
+                }
+            }
+        }));
+    }
+
+    /**
+     * A queued task, which starts its timeout once a worker picks it up and drops it as soon as
+     * it's done, so the timeout doesn't linger in the scheduler.
+     */
+    private final class PostSyncTask extends FutureTask<Void> {
+        private final String mName;
+        private final long mTimeoutMillis;
+        private volatile Future<?> mTimeout;
+
+        PostSyncTask(String name, long timeoutMillis, Runnable runnable) {
+            super(runnable, null);
+            mName = name;
+            mTimeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void run() {
+            mTimeout = mTimeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancel(true)) {
+                        Log.w(LOG_TAG, mName + " timed out after " + mTimeoutMillis + " ms");
+                    }
+                }
+            }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            Future<?> timeout = mTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + "-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.wearable.WeatherWearSender;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what to do when the watch asks for a sync.
+ * <p/>
+ * The watch asks whenever its forecast looks stale, which can be every time the watch face is
+ * shown, so most requests shouldn't reach the network:
+ * <ul>
+ * <li>If the last successful sync is recent, the watch is answered from the database.</li>
+ * <li>If a sync is already running or queued, the request joins it; the watch gets the
+ * forecast when that sync finishes.</li>
+ * <li>Otherwise at most one sync is started per {@link #MIN_INTERVAL_MILLIS}.</li>
+ * </ul>
+ */
+public class RemoteSyncTrigger {
+    private static final String LOG_TAG = RemoteSyncTrigger.class.getSimpleName();
+
+    /**
+     * How old the last sync can be before a request from the watch goes to the network.
+     */
+    static final long FRESH_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The shortest time between syncs started for the watch.
+     */
+    static final long MIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // Kept in preferences so a restarted process doesn't start another sync straight away
+    private static final String PREFS_NAME = "remote_sync";
+    private static final String PREF_LAST_TRIGGER = "last_trigger";
+
+    /**
+     * @param watchSeq The sequence number of the forecast the watch has, or 0 if it has none.
+     */
+    public static synchronized void onSyncRequested(Context context, int watchSeq) {
+        long now = System.currentTimeMillis();
+        long lastSync = SunshineSyncAdapter.getLastSyncTime(context);
+        if (isWithin(now, lastSync, FRESH_MILLIS)) {
+            Log.d(LOG_TAG, "Last sync is recent, answering the watch from the database");
+            WeatherWearSender.answer(context, watchSeq);
+            return;
+        }
+
+        Account account = SunshineSyncAdapter.getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+        if (account != null && (ContentResolver.isSyncActive(account, authority)
+                || ContentResolver.isSyncPending(account, authority))) {
+            // The watch is sent the forecast when that sync finishes
+            Log.d(LOG_TAG, "Sync already in flight, not starting another");
+            return;
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (isWithin(now, prefs.getLong(PREF_LAST_TRIGGER, 0), MIN_INTERVAL_MILLIS)) {
+            // A sync started for the watch a moment ago failed or found nothing new; answer
+            // from what we have rather than hammering the server
+            Log.d(LOG_TAG, "Sync started for the watch recently, answering from the database");
+            WeatherWearSender.answer(context, watchSeq);
+            return;
+        }
+
+        prefs.edit().putLong(PREF_LAST_TRIGGER, now).apply();
+        SunshineSyncAdapter.syncImmediately(context);
+    }
+
+    /**
+     * @return whether {@code then} is no more than {@code window} before {@code now}.  A time
+     * in the future means the clock has been set back, so it doesn't count.
+     */
+    static boolean isWithin(long now, long then, long window) {
+        return then > 0 && then <= now && now - then < window;
+    }
+}
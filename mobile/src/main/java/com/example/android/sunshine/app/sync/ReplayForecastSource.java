@@ -0,0 +1,59 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves a recorded OpenWeatherMap response in place of the live service, either from memory
+ * or from a file, so syncs can be profiled and load tested offline.  Every fetch returns the
+ * same response whatever location or number of days is asked for.
+ */
+public class ReplayForecastSource implements ForecastSource {
+    private final byte[] mResponse;
+    private final File mResponseFile;
+
+    /**
+     * @param response The recorded response body, served from memory.
+     */
+    public ReplayForecastSource(byte[] response) {
+        if (response == null) {
+            throw new IllegalArgumentException("Response must be non-null");
+        }
+        mResponse = response;
+        mResponseFile = null;
+    }
+
+    /**
+     * @param responseFile A file holding the recorded response body, re-read on every fetch.
+     */
+    public ReplayForecastSource(File responseFile) {
+        if (responseFile == null) {
+            throw new IllegalArgumentException("Response file must be non-null");
+        }
+        mResponse = null;
+        mResponseFile = responseFile;
+    }
+
+    @Override
+    public InputStream fetch(String locationSetting, int numDays, SyncRecord record)
+            throws IOException {
+        // There's no network, so nothing is added to the record
+        if (mResponse != null) {
+            return new ByteArrayInputStream(mResponse);
+        }
+        return new FileInputStream(mResponseFile);
+    }
+
+    @Override
+    public void onForecastParsed(String locationSetting, int numDays) {
+        // The whole response is always replayed, so there's nothing left to read
+    }
+
+    @Override
+    public void onForecastStored(String locationSetting, int numDays) {
+        // Every fetch replays the full response, so there's nothing to remember
+    }
+}
@@ -7,21 +7,22 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -30,36 +31,32 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+import com.example.android.sunshine.app.wearable.WeatherWearSender;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -72,20 +69,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {
@@ -97,275 +80,347 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Number of days of forecast to ask the server for
+    private static final int NUM_DAYS = 14;
+
+    // Most forecasts that are downloaded at the same time during a sync
+    private static final int MAX_CONCURRENT_FETCHES = 3;
+
+    // How long each post-sync task may take before it's interrupted.  The notification waits
+    // on an image load, and the watch may have to encode its icon.
+    private static final long SEND_TO_WEAR_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long UPDATE_WIDGETS_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long UPDATE_MUZEI_TIMEOUT_MILLIS = 5 * 1000;
+    private static final long NOTIFY_WEATHER_TIMEOUT_MILLIS = 15 * 1000;
+
+    /**
+     * A forecast fetched for one location, waiting to be stored.
+     */
+    private static final class FetchedForecast {
+        final String locationSetting;
+        int code = HttpURLConnection.HTTP_OK;
+        ContentValues city;
+        // null if the forecast hasn't changed or couldn't be read.  Never more than NUM_DAYS
+        // rows, however large the response was.
+        ArrayList<ContentValues> days;
+
+        FetchedForecast(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
+
+    private final ForecastSource mForecastSource;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OwmForecastSource(context));
+    }
+
+    /**
+     * Creates a sync adapter that reads its forecasts from the given source instead of the
+     * OpenWeatherMap service.
+     */
+    public SunshineSyncAdapter(Context context, boolean autoInitialize, ForecastSource forecastSource) {
         super(context, autoInitialize);
+        mForecastSource = forecastSource;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        syncLocations(Utility.getSyncLocations(getContext()));
+    }
+
+    /**
+     * Fetches the forecast for a single location and stores it, running everything that depends
+     * on fresh data afterwards.
+     *
+     * @param locationQuery The location string used to request updates from the server.
+     */
+    void syncLocation(String locationQuery) {
+        syncLocations(Collections.singletonList(locationQuery));
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * Fetches the forecasts for all of the locations from the {@link ForecastSource}, a few at a
+     * time, and stores them in a single batch.  Widgets, Muzei, the notification and the watch
+     * are updated once at the end rather than once per location.
+     * <p/>
+     * The location status is only set for the first location, which is the preferred one when
+     * the list comes from {@link Utility#getSyncLocations}.  Any saved location the server
+     * doesn't know is forgotten, so it isn't fetched again on every sync.
+     *
+     * <p/>
+     * How long each stage took is added to {@link SyncMetrics}.
+     *
+     * @param locationQueries The location strings used to request updates from the server.
+     */
+    void syncLocations(List<String> locationQueries) {
+        if (locationQueries.isEmpty()) {
+            return;
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        SyncRecord record = new SyncRecord();
+        record.setLocations(locationQueries.size());
+        try {
+            syncLocations(locationQueries, record);
+        } finally {
+            record.finish();
+            SyncMetrics.getInstance().add(record);
+        }
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    private void syncLocations(List<String> locationQueries, final SyncRecord record) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_CONCURRENT_FETCHES, locationQueries.size()));
+        ArrayList<Future<FetchedForecast>> futures = new ArrayList<Future<FetchedForecast>>();
+        ArrayList<FetchedForecast> forecasts = new ArrayList<FetchedForecast>();
+        @LocationStatus int preferredStatus = LOCATION_STATUS_UNKNOWN;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            for (final String locationQuery : locationQueries) {
+                futures.add(executor.submit(new Callable<FetchedForecast>() {
+                    @Override
+                    public FetchedForecast call() throws IOException, JSONException {
+                        return fetchForecast(locationQuery, julianStartDay, record);
+                    }
+                }));
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
+            for (int i = 0; i < futures.size(); i++) {
+                String locationQuery = locationQueries.get(i);
+                @LocationStatus int status;
                 try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+                    FetchedForecast forecast = futures.get(i).get();
+                    switch (forecast.code) {
+                        case HttpURLConnection.HTTP_OK:
+                            status = LOCATION_STATUS_OK;
+                            if (forecast.days != null) {
+                                forecasts.add(forecast);
+                            } else {
+                                // The forecast we already have is current, so there's nothing
+                                // to store for this location.
+                                Log.d(LOG_TAG, "Forecast unchanged for " + locationQuery);
+                            }
+                            break;
+                        case HttpURLConnection.HTTP_NOT_FOUND:
+                            status = LOCATION_STATUS_INVALID;
+                            Utility.removeSavedLocation(getContext(), locationQuery);
+                            break;
+                        default:
+                            status = LOCATION_STATUS_SERVER_DOWN;
+                            break;
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof JSONException) {
+                        Log.e(LOG_TAG, "Invalid forecast for " + locationQuery, e.getCause());
+                        status = LOCATION_STATUS_SERVER_INVALID;
+                    } else {
+                        // If the code didn't successfully get the weather data, there's no
+                        // point in attempting to store it.
+                        Log.e(LOG_TAG, "Error fetching forecast for " + locationQuery, e.getCause());
+                        status = LOCATION_STATUS_SERVER_DOWN;
+                    }
+                }
+                if (i == 0) {
+                    preferredStatus = status;
                 }
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; leave everything as it was
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        boolean stored = forecasts.isEmpty() || storeForecasts(forecasts, record);
+        if (stored || preferredStatus != LOCATION_STATUS_OK) {
+            // Don't report a location as good when its forecast never made it into the database
+            setLocationStatus(getContext(), preferredStatus);
+            record.setStatus(preferredStatus);
+        }
+        if (stored && preferredStatus == LOCATION_STATUS_OK) {
+            setLastSyncTime(getContext(), System.currentTimeMillis());
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Fetches and parses the forecast for one location.  This runs on the fetch executor, so it
+     * must not touch anything shared with the other fetches.
      * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * The parser holds no more than NUM_DAYS days, the number we asked for, skipping any further
+     * days in the response, and hands them over once the whole response has been read.  The
+     * rows can't go straight to the database: every location's forecast is stored in one
+     * transaction once all the fetches are done, so a transaction isn't held open while waiting
+     * on the network.  Memory use is bounded by NUM_DAYS whatever the size of the payload.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    private FetchedForecast fetchForecast(String locationQuery, final int julianStartDay,
+                                          SyncRecord record)
+            throws IOException, JSONException {
+        final FetchedForecast forecast = new FetchedForecast(locationQuery);
+        InputStream inputStream = mForecastSource.fetch(locationQuery, NUM_DAYS, record);
+        if (inputStream == null) {
+            return forecast;
+        }
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        long parseStart = SystemClock.elapsedRealtimeNanos();
 
+        // now we work exclusively in UTC
+        final Time utcTime = new Time();
+        final ArrayList<ContentValues> cVList = new ArrayList<ContentValues>(NUM_DAYS);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            // Parse straight off the stream rather than copying the body into a String first.
+            // An empty stream surfaces as an EOFException, which is reported like any other
+            // network failure.
+            Reader reader = new BufferedReader(new InputStreamReader(countingStream, "UTF-8"));
+            forecast.code = new ForecastJsonParser().parse(reader, new ForecastJsonParser.Handler() {
+                @Override
+                public void onCity(String cityName, double lat, double lon) {
+                    ContentValues locationValues = new ContentValues();
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+                    locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+                    forecast.city = locationValues;
                 }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+                @Override
+                public void onDay(int dayIndex, ForecastJsonParser.DayForecast day) {
+                    ContentValues weatherValues = new ContentValues();
+
+                    // Cheating to convert this to UTC time, which is what we want anyhow
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            utcTime.setJulianDay(julianStartDay + dayIndex));
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+                    cVList.add(weatherValues);
+                }
+            }, NUM_DAYS);
+            if (forecast.code == HttpURLConnection.HTTP_OK) {
+                mForecastSource.onForecastParsed(locationQuery, NUM_DAYS);
+                forecast.days = cVList;
+            }
+        } finally {
+            record.addStage(SyncRecord.STAGE_PARSE, parseStart);
+            record.addBytesParsed(countingStream.getCount());
+            try {
+                countingStream.close();
+            } catch (final IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+        return forecast;
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Stores the fetched forecasts in one batch, which the provider applies in a single
+     * transaction along with dropping the days each location's forecast has moved past, then
+     * hands everything that shows the weather to the {@link PostSyncDispatcher} so the sync can
+     * return as soon as the data is committed.
+     *
+     * @return true if the forecasts were stored
+     */
+    private boolean storeForecasts(List<FetchedForecast> forecasts, SyncRecord record) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int numRows = 0;
+        for (FetchedForecast forecast : forecasts) {
+            // The provider upserts locations inserted in a batch, so the location is resolved
+            // inside the same transaction and its rows pick up the _ID by back reference.
+            int locationIndex = operations.size();
+            forecast.city.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    forecast.locationSetting);
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(forecast.city)
+                    .build());
+
+            for (ContentValues weatherValues : forecast.days) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                locationIndex)
+                        .build());
+            }
+            numRows += forecast.days.size();
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        long stageStart = SystemClock.elapsedRealtimeNanos();
+        try {
+            getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            return false;
+        } finally {
+            record.addStage(SyncRecord.STAGE_DB_TRANSACTION, stageStart);
+        }
+        record.setRowsStored(numRows);
 
-                cVVector.add(weatherValues);
-            }
+        // Hand the preferred location's forecast straight to everything that shows it, rather
+        // than having each of them query for what was just written.
+        for (FetchedForecast forecast : forecasts) {
+            ForecastSnapshot.publish(getContext(), forecast.locationSetting, forecast.days);
+        }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-                sendToWear(getContext());
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        for (FetchedForecast forecast : forecasts) {
+            mForecastSource.onForecastStored(forecast.locationSetting, NUM_DAYS);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // Everything else can happen after the sync has returned, each on its own
+        PostSyncDispatcher dispatcher = PostSyncDispatcher.getInstance();
+        if (numRows > 0) {
+            dispatcher.dispatch("Send to wear", SEND_TO_WEAR_TIMEOUT_MILLIS,
+                    record, SyncRecord.STAGE_SEND_TO_WEAR, new Runnable() {
+                        @Override
+                        public void run() {
+                            WeatherWearSender.send(getContext(), false);
+                        }
+                    });
+            dispatcher.dispatch("Update widgets", UPDATE_WIDGETS_TIMEOUT_MILLIS,
+                    record, SyncRecord.STAGE_UPDATE_WIDGETS, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateWidgets();
+                        }
+                    });
+            dispatcher.dispatch("Update Muzei", UPDATE_MUZEI_TIMEOUT_MILLIS,
+                    record, SyncRecord.STAGE_UPDATE_MUZEI, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateMuzei();
+                        }
+                    });
+            dispatcher.dispatch("Notify weather", NOTIFY_WEATHER_TIMEOUT_MILLIS,
+                    record, SyncRecord.STAGE_NOTIFY_WEATHER, new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyWeather();
+                        }
+                    });
         }
+        Log.d(LOG_TAG, "Sync Complete. " + numRows + " Days for "
+                + forecasts.size() + " locations");
+        return true;
     }
 
     private void updateWidgets() {
@@ -401,18 +456,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // The sync has just published today's forecast, so there's no need to query for it
+                ForecastSnapshot.Day today = ForecastSnapshot.getCurrent(context).getToday();
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.maxTemp;
+                    double low = today.minTemp;
+                    String desc = today.shortDesc;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -487,61 +538,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -648,119 +648,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         spe.commit();
     }
 
-    private void sendToWear(Context context) {
-        String locationQuery = Utility.getPreferredLocation(context);
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-            Resources resources = context.getResources();
-            int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-            //String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-            // On Honeycomb and higher devices, we can retrieve the size of the large icon
-            // Prior to that, we use a fixed size
-            @SuppressLint("InlinedApi")
-            int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-            @SuppressLint("InlinedApi")
-            int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                    ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                    : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-            // Retrieve the large icon
-            Bitmap largeIcon;
-            try {
-                largeIcon = Glide.with(context)
-                        .load(artResourceId)
-                        .asBitmap()
-                        .fitCenter()
-                        .into(largeIconWidth, largeIconHeight).get();
-            } catch (InterruptedException | ExecutionException e) {
-                //Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-            }
-            Log.d("Sending", "To Wear");
-            final GoogleApiClient mGoogleApiClient;
-            boolean mResolvingError = false;
-
-
-            final String WEATHER_PATH = "/weather";
-            final String WEATHER_TEMP_HIGH_KEY = "weather_temp_high_key";
-            final String WEATHER_TEMP_LOW_KEY = "weather_temp_low_key";
-            final String WEATHER_TEMP_ICON_KEY = "weather_temp_icon_key";
-
-            mGoogleApiClient = new GoogleApiClient.Builder(context)
-                    .addApi(Wearable.API)
-                    .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                        @Override
-                        public void onConnected(Bundle bundle) {
-                            Log.v("Watch log", "Google API Client was connected");
-                        }
-
-                        @Override
-                        public void onConnectionSuspended(int i) {
-                            Log.v("Watch Log", "Connection to Google API client was suspended");
-                        }
-                    })
-                    .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                        @Override
-                        public void onConnectionFailed(ConnectionResult result) {
-                            Log.e("Watch Log", "Connection to Google API client has failed");
-                        }
-                    })
-                    .build();
-
-            mGoogleApiClient.connect();
-
-            Asset asset = assetFromBitmap(Bitmap.createScaledBitmap(largeIcon, 52, 52, true));
-
-            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
-            putDataMapRequest.getDataMap().putString(WEATHER_TEMP_HIGH_KEY, Utility.formatTemperature(context, high));
-            putDataMapRequest.getDataMap().putString(WEATHER_TEMP_LOW_KEY, Utility.formatTemperature(context, low));
-            putDataMapRequest.getDataMap().putAsset(WEATHER_TEMP_ICON_KEY, asset);
-            putDataMapRequest.getDataMap().putLong("timestamp", System.currentTimeMillis());
-
-
-            PutDataRequest request = putDataMapRequest.asPutDataRequest();
-            Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                @Override
-                public void onResult(DataApi.DataItemResult dataItemResult) {
-                    if (dataItemResult.getStatus().isSuccess()) {
-                        Log.e("Watch Log", "Successfully send weather info");
-                    } else {
-                        Log.e("Watch Log", "Failed to send weather info ");
-                    }
-                    mGoogleApiClient.disconnect();
-                }
-            });
-        }
+    static private void setLastSyncTime(Context c, long timeMillis) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        sp.edit().putLong(c.getString(R.string.pref_last_sync_key), timeMillis).apply();
     }
 
-    private Asset assetFromBitmap(Bitmap bitmap) {
-        ByteArrayOutputStream byteStream = null;
-        try {
-            byteStream = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-            return Asset.createFromBytes(byteStream.toByteArray());
-        } finally {
-            if (null != byteStream) {
-                try {
-                    byteStream.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
-        }
+    /**
+     * @return when the forecast for the preferred location was last brought up to date, or 0
+     * if it never has been
+     */
+    public static long getLastSyncTime(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_last_sync_key), 0);
     }
-}
\ No newline at end of file
+}
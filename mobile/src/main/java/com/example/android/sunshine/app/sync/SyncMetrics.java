@@ -0,0 +1,129 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent {@link SyncRecord}s in a fixed size ring buffer.
+ * <p/>
+ * Adding a record claims a slot with a single atomic increment and overwrites whatever was in
+ * it, so neither the sync adapter nor a reader dumping the records ever takes a lock.  A reader
+ * racing a writer can miss the newest record or see one slot already overwritten, which doesn't
+ * matter for latency percentiles.
+ * <p/>
+ * The records can be read with
+ * {@code adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService}.
+ */
+public class SyncMetrics {
+
+    private static final int CAPACITY = 128;
+
+    private static final SyncMetrics sInstance = new SyncMetrics(CAPACITY);
+
+    private final AtomicReferenceArray<SyncRecord> mRecords;
+    // Total number of records ever added; the next one goes in slot mNext % capacity
+    private final AtomicLong mNext = new AtomicLong();
+
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    SyncMetrics(int capacity) {
+        mRecords = new AtomicReferenceArray<SyncRecord>(capacity);
+    }
+
+    public void add(SyncRecord record) {
+        long index = mNext.getAndIncrement();
+        mRecords.set((int) (index % mRecords.length()), record);
+    }
+
+    /**
+     * @return the records still held, oldest first
+     */
+    public List<SyncRecord> getRecords() {
+        int capacity = mRecords.length();
+        long next = mNext.get();
+        long first = Math.max(0, next - capacity);
+        List<SyncRecord> records = new ArrayList<SyncRecord>((int) (next - first));
+        for (long i = first; i < next; i++) {
+            SyncRecord record = mRecords.get((int) (i % capacity));
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes latency percentiles for the whole sync and each stage, followed by every record
+     * as a line of comma separated values.  Times are in microseconds.
+     */
+    public void dump(PrintWriter writer) {
+        List<SyncRecord> records = getRecords();
+        writer.println("Sync records: " + records.size());
+        if (records.isEmpty()) {
+            return;
+        }
+
+        writer.println("stage,p50,p90,p99,max");
+        long[] values = new long[records.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = records.get(i).getDurationNanos();
+        }
+        dumpPercentiles(writer, "total", values);
+        for (int stage = 0; stage < SyncRecord.STAGE_COUNT; stage++) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = records.get(i).getStageNanos(stage);
+            }
+            dumpPercentiles(writer, SyncRecord.STAGE_NAMES[stage], values);
+        }
+
+        writer.println();
+        StringBuilder header = new StringBuilder("start_ms,total");
+        for (String stage : SyncRecord.STAGE_NAMES) {
+            header.append(',').append(stage);
+        }
+        header.append(",bytes_received,bytes_parsed,locations,rows,status");
+        writer.println(header);
+        for (SyncRecord record : records) {
+            StringBuilder line = new StringBuilder()
+                    .append(record.startTimeMillis).append(',')
+                    .append(micros(record.getDurationNanos()));
+            for (int stage = 0; stage < SyncRecord.STAGE_COUNT; stage++) {
+                line.append(',').append(micros(record.getStageNanos(stage)));
+            }
+            line.append(',').append(record.getBytesReceived())
+                    .append(',').append(record.getBytesParsed())
+                    .append(',').append(record.getLocations())
+                    .append(',').append(record.getRowsStored())
+                    .append(',').append(record.getStatus());
+            writer.println(line);
+        }
+    }
+
+    private static void dumpPercentiles(PrintWriter writer, String name, long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        writer.println(name
+                + ',' + micros(percentile(sorted, 50))
+                + ',' + micros(percentile(sorted, 90))
+                + ',' + micros(percentile(sorted, 99))
+                + ',' + micros(sorted[sorted.length - 1]));
+    }
+
+    /**
+     * Nearest-rank percentile of an already sorted array.
+     */
+    static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static long micros(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1000;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counts collected over one run of the sync adapter.
+ * <p/>
+ * Forecasts for several locations are fetched at once, so the network and parse stages are
+ * added up across every fetch in the run and may together exceed the time the run took.  The
+ * body is read off the network as it's parsed, so the time spent waiting on it is counted in
+ * both the body read and the parse stages.  A record is added to {@link SyncMetrics} when the
+ * sync returns; the stages that run after the sync, in the {@link PostSyncDispatcher}, are
+ * added to it as they finish, so they are not part of the sync's own duration.
+ */
+public class SyncRecord {
+
+    // Stages of a sync, in the order they happen
+    public static final int STAGE_CONNECT = 0;
+    public static final int STAGE_FIRST_BYTE = 1;
+    public static final int STAGE_BODY_READ = 2;
+    public static final int STAGE_PARSE = 3;
+    public static final int STAGE_DB_TRANSACTION = 4;
+    public static final int STAGE_UPDATE_WIDGETS = 5;
+    public static final int STAGE_UPDATE_MUZEI = 6;
+    public static final int STAGE_NOTIFY_WEATHER = 7;
+    public static final int STAGE_SEND_TO_WEAR = 8;
+    public static final int STAGE_COUNT = 9;
+
+    // Column names for the stages, as they appear in the dump
+    static final String[] STAGE_NAMES = {
+            "connect",
+            "first_byte",
+            "body_read",
+            "parse",
+            "db_txn",
+            "widgets",
+            "muzei",
+            "notify",
+            "wear"
+    };
+
+    // Wall clock time the sync started at, for lining records up across devices
+    public final long startTimeMillis;
+    private final long mStartNanos;
+    private long mDurationNanos = -1;
+
+    private final AtomicLongArray mStageNanos = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesParsed = new AtomicLong();
+    private int mLocations;
+    private int mRowsStored;
+    @SunshineSyncAdapter.LocationStatus
+    private int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+    public SyncRecord() {
+        startTimeMillis = System.currentTimeMillis();
+        mStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Adds time spent in a stage.  Safe to call from any thread.
+     *
+     * @param stage      one of the STAGE_ constants
+     * @param startNanos when the stage started, from {@link SystemClock#elapsedRealtimeNanos}
+     */
+    public void addStage(int stage, long startNanos) {
+        mStageNanos.addAndGet(stage, SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    /**
+     * Adds to the number of response bytes read off the network.  Safe to call from any thread.
+     */
+    public void addBytesReceived(long bytes) {
+        mBytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Adds to the number of response bytes handed to the parser.  Safe to call from any thread.
+     */
+    public void addBytesParsed(long bytes) {
+        mBytesParsed.addAndGet(bytes);
+    }
+
+    void setLocations(int locations) {
+        mLocations = locations;
+    }
+
+    void setRowsStored(int rows) {
+        mRowsStored = rows;
+    }
+
+    void setStatus(@SunshineSyncAdapter.LocationStatus int status) {
+        mStatus = status;
+    }
+
+    /**
+     * Marks the end of the sync.
+     */
+    void finish() {
+        mDurationNanos = SystemClock.elapsedRealtimeNanos() - mStartNanos;
+    }
+
+    public long getStageNanos(int stage) {
+        return mStageNanos.get(stage);
+    }
+
+    /**
+     * @return how long the whole sync took, or -1 if it hasn't finished
+     */
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    public long getBytesParsed() {
+        return mBytesParsed.get();
+    }
+
+    public int getLocations() {
+        return mLocations;
+    }
+
+    public int getRowsStored() {
+        return mRowsStored;
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    public int getStatus() {
+        return mStatus;
+    }
+}
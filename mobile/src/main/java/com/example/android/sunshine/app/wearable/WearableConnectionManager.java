@@ -0,0 +1,335 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the one connection to the Wearable API used by the whole process.
+ * <p/>
+ * Data items are queued by path and sent once the client is connected; putting an item for a
+ * path that is still queued replaces it, so a burst of syncs results in one write per path.
+ * Messages are queued in order and sent to every connected node; unlike data items they are
+ * not kept for nodes that aren't connected, so a lost one is simply lost, and the sender can
+ * wait on its {@link Delivery} to find out whether it reached anyone.
+ * The connection is kept open between bursts and only dropped once nothing has been sent for a
+ * while.  If connecting fails it is retried with exponential backoff for as long as anything is
+ * waiting to be sent.
+ * <p/>
+ * All of the connection state lives on a single background thread, which is also where the
+ * client delivers its callbacks, so none of it needs locking.
+ */
+public class WearableConnectionManager implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener, Handler.Callback {
+    private static final String LOG_TAG = WearableConnectionManager.class.getSimpleName();
+
+    // Wait this long after an item is queued for more to arrive before sending
+    private static final long COALESCE_DELAY_MILLIS = 500;
+    // Disconnect once nothing has been sent for this long
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+
+    private static final int MSG_PUT = 0;
+    private static final int MSG_FLUSH = 1;
+    private static final int MSG_RECONNECT = 2;
+    private static final int MSG_IDLE = 3;
+    private static final int MSG_SENT = 4;
+    private static final int MSG_SEND_MESSAGE = 5;
+
+    private static WearableConnectionManager sInstance;
+
+    private final Handler mHandler;
+    private final GoogleApiClient mGoogleApiClient;
+
+    // Only touched on mHandler's thread
+    private final LinkedHashMap<String, PutDataRequest> mPending =
+            new LinkedHashMap<String, PutDataRequest>();
+    private final ArrayList<OutgoingMessage> mPendingMessages = new ArrayList<OutgoingMessage>();
+    private long mBackoffMillis = MIN_BACKOFF_MILLIS;
+
+    public static synchronized WearableConnectionManager getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread("WearableConnection",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new WearableConnectionManager(context.getApplicationContext(),
+                    thread.getLooper());
+        }
+        return sInstance;
+    }
+
+    private WearableConnectionManager(Context context, Looper looper) {
+        mHandler = new Handler(looper, this);
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .setHandler(mHandler)
+                .build();
+    }
+
+    /**
+     * Queues a data item to be sent as soon as the connection allows, replacing any item for
+     * the same path that hasn't been sent yet.  Safe to call from any thread.
+     */
+    public void putDataItem(PutDataRequest request) {
+        mHandler.obtainMessage(MSG_PUT, request).sendToTarget();
+    }
+
+    /**
+     * Queues a message to be sent to every connected node once the connection is up.  Safe to
+     * call from any thread.
+     *
+     * @return how to find out how many nodes the message reached
+     */
+    public Delivery sendMessage(String path, byte[] data) {
+        OutgoingMessage message = new OutgoingMessage(path, data);
+        mHandler.obtainMessage(MSG_SEND_MESSAGE, message).sendToTarget();
+        return message.delivery;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_PUT: {
+                PutDataRequest request = (PutDataRequest) msg.obj;
+                // Re-inserting moves the path to the end, so items go out in the order they
+                // were last put
+                mPending.remove(request.getUri().getPath());
+                mPending.put(request.getUri().getPath(), request);
+                scheduleFlush();
+                return true;
+            }
+            case MSG_SEND_MESSAGE:
+                mPendingMessages.add((OutgoingMessage) msg.obj);
+                scheduleFlush();
+                return true;
+            case MSG_FLUSH:
+                flush();
+                return true;
+            case MSG_RECONNECT:
+                if (!hasPending()) {
+                    return true;
+                }
+                if (mGoogleApiClient.isConnected()) {
+                    // Retrying a failed put over a connection that's still up
+                    flush();
+                } else {
+                    mGoogleApiClient.connect();
+                }
+                return true;
+            case MSG_IDLE:
+                if (!hasPending() && mGoogleApiClient.isConnected()) {
+                    Log.d(LOG_TAG, "Disconnecting after " + IDLE_TIMEOUT_MILLIS + " ms idle");
+                    mGoogleApiClient.disconnect();
+                }
+                return true;
+            case MSG_SENT:
+                onSent((PutDataRequest) msg.obj, msg.arg1 != 0);
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        Log.d(LOG_TAG, "Connected, " + mPending.size() + " items and "
+                + mPendingMessages.size() + " messages waiting");
+        mBackoffMillis = MIN_BACKOFF_MILLIS;
+        flush();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // The client reconnects by itself; anything put meanwhile stays queued until it does
+        Log.d(LOG_TAG, "Connection suspended, cause " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        if (result.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
+            // There's no wearable paired, so there's nothing to retry for
+            Log.d(LOG_TAG, "Wearable API unavailable, dropping " + mPending.size() + " items and "
+                    + mPendingMessages.size() + " messages");
+            mPending.clear();
+            for (OutgoingMessage message : mPendingMessages) {
+                message.delivery.expect(0);
+            }
+            mPendingMessages.clear();
+            return;
+        }
+        Log.w(LOG_TAG, "Connection failed: " + result + ", retrying in "
+                + mBackoffMillis + " ms");
+        scheduleReconnect();
+    }
+
+    private boolean hasPending() {
+        return !mPending.isEmpty() || !mPendingMessages.isEmpty();
+    }
+
+    private void scheduleFlush() {
+        mHandler.removeMessages(MSG_IDLE);
+        if (mGoogleApiClient.isConnected()) {
+            if (!mHandler.hasMessages(MSG_FLUSH)) {
+                mHandler.sendEmptyMessageDelayed(MSG_FLUSH, COALESCE_DELAY_MILLIS);
+            }
+        } else if (!mHandler.hasMessages(MSG_RECONNECT)) {
+            mGoogleApiClient.connect();
+        }
+    }
+
+    private void scheduleReconnect() {
+        if (!mHandler.hasMessages(MSG_RECONNECT)) {
+            mHandler.sendEmptyMessageDelayed(MSG_RECONNECT, mBackoffMillis);
+            mBackoffMillis = Math.min(mBackoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void flush() {
+        mHandler.removeMessages(MSG_FLUSH);
+        if (!mGoogleApiClient.isConnected()) {
+            return;
+        }
+        ArrayList<PutDataRequest> requests = new ArrayList<PutDataRequest>(mPending.values());
+        mPending.clear();
+        for (final PutDataRequest request : requests) {
+            Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                    .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                        @Override
+                        public void onResult(@NonNull DataApi.DataItemResult result) {
+                            boolean success = result.getStatus().isSuccess();
+                            if (!success) {
+                                Log.w(LOG_TAG, "Failed to put " + request.getUri() + ": "
+                                        + result.getStatus());
+                            }
+                            mHandler.obtainMessage(MSG_SENT, success ? 1 : 0, 0, request)
+                                    .sendToTarget();
+                        }
+                    });
+        }
+        if (!mPendingMessages.isEmpty()) {
+            sendMessages(new ArrayList<OutgoingMessage>(mPendingMessages));
+            mPendingMessages.clear();
+        }
+        mHandler.removeMessages(MSG_IDLE);
+        mHandler.sendEmptyMessageDelayed(MSG_IDLE, IDLE_TIMEOUT_MILLIS);
+    }
+
+    private void sendMessages(final List<OutgoingMessage> messages) {
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(@NonNull NodeApi.GetConnectedNodesResult result) {
+                        boolean connected = mGoogleApiClient.isConnected();
+                        List<Node> nodes = result.getNodes();
+                        for (OutgoingMessage message : messages) {
+                            message.delivery.expect(connected ? nodes.size() : 0);
+                        }
+                        if (!connected) {
+                            return;
+                        }
+                        for (Node node : nodes) {
+                            for (final OutgoingMessage message : messages) {
+                                Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                        message.path, message.data).setResultCallback(
+                                        new ResultCallback<MessageApi.SendMessageResult>() {
+                                            @Override
+                                            public void onResult(
+                                                    @NonNull MessageApi.SendMessageResult sent) {
+                                                message.delivery.onResult(
+                                                        sent.getStatus().isSuccess());
+                                            }
+                                        });
+                            }
+                        }
+                    }
+                });
+    }
+
+    private void onSent(PutDataRequest request, boolean success) {
+        if (success) {
+            mBackoffMillis = MIN_BACKOFF_MILLIS;
+            return;
+        }
+        String path = request.getUri().getPath();
+        // A newer item for the same path supersedes the failed one
+        if (!mPending.containsKey(path)) {
+            mPending.put(path, request);
+        }
+        mHandler.removeMessages(MSG_IDLE);
+        scheduleReconnect();
+    }
+
+    /**
+     * How many nodes a message reached, filled in as the client reports back.
+     */
+    public static final class Delivery {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private int mWaiting;
+        private int mReached;
+
+        synchronized void expect(int nodes) {
+            mWaiting = nodes;
+            if (nodes == 0) {
+                mDone.countDown();
+            }
+        }
+
+        synchronized void onResult(boolean success) {
+            if (success) {
+                mReached++;
+            }
+            if (--mWaiting == 0) {
+                mDone.countDown();
+            }
+        }
+
+        /**
+         * Waits for the message to be sent.  Never call this on the connection's thread.
+         *
+         * @return the number of nodes the message reached, or 0 if it wasn't sent in time
+         */
+        public int await(long timeoutMillis) throws InterruptedException {
+            if (!mDone.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return 0;
+            }
+            synchronized (this) {
+                return mReached;
+            }
+        }
+    }
+
+    private static final class OutgoingMessage {
+        final String path;
+        final byte[] data;
+        final Delivery delivery = new Delivery();
+
+        OutgoingMessage(String path, byte[] data) {
+            this.path = path;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * PNG encoded weather icons, ready to be sent to the watch as an
+ * {@link com.google.android.gms.wearable.Asset}.
+ * <p/>
+ * There are only a handful of art resources, so each one is decoded, scaled and encoded once
+ * per size and density and then kept, both in memory and in the cache directory, where it
+ * survives the process being killed between syncs.  Every icon carries a digest of its bytes,
+ * which the watch uses to tell whether it already has the icon without fetching the asset.
+ */
+public class WeatherIconAssets {
+    private static final String LOG_TAG = WeatherIconAssets.class.getSimpleName();
+
+    private static final String CACHE_DIR = "wear_icons";
+    // A few dozen icons at most, each a few KB
+    private static final int MEMORY_CACHE_BYTES = 256 * 1024;
+
+    private static WeatherIconAssets sInstance;
+
+    /**
+     * An encoded icon and the digest of its bytes.
+     */
+    public static final class Icon {
+        public final byte[] bytes;
+        // Hex SHA-1 of bytes
+        public final String digest;
+
+        Icon(byte[] bytes) {
+            this.bytes = bytes;
+            this.digest = digest(bytes);
+        }
+    }
+
+    private final Resources mResources;
+    private final File mDir;
+    private final LruCache<String, Icon> mIcons = new LruCache<String, Icon>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Icon icon) {
+            return icon.bytes.length;
+        }
+    };
+
+    public static synchronized WeatherIconAssets getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherIconAssets(context.getResources(),
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIR));
+        }
+        return sInstance;
+    }
+
+    WeatherIconAssets(Resources resources, File dir) {
+        mResources = resources;
+        mDir = dir;
+    }
+
+    /**
+     * @param artResourceId One of the art drawables, as returned by
+     *                      {@link com.example.android.sunshine.app.Utility#getArtResourceForWeatherCondition}.
+     * @param sizePx        The width and height of the icon.
+     * @return the icon, or null if the resource couldn't be decoded
+     */
+    public synchronized Icon getIcon(int artResourceId, int sizePx) {
+        String key = keyFor(artResourceId, sizePx);
+        Icon icon = mIcons.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        File file = new File(mDir, key + ".png");
+        byte[] bytes = readFile(file);
+        if (bytes == null) {
+            bytes = encode(artResourceId, sizePx);
+            if (bytes == null) {
+                return null;
+            }
+            writeFile(file, bytes);
+        }
+        icon = new Icon(bytes);
+        mIcons.put(key, icon);
+        return icon;
+    }
+
+    void clearMemory() {
+        mIcons.evictAll();
+    }
+
+    /**
+     * Resource ids can change from one build to the next, so files are named after the
+     * resource's name and the version of the app that drew them.
+     */
+    private String keyFor(int artResourceId, int sizePx) {
+        return mResources.getResourceEntryName(artResourceId)
+                + '_' + sizePx
+                + '_' + mResources.getDisplayMetrics().densityDpi
+                + "_v" + BuildConfig.VERSION_CODE;
+    }
+
+    private byte[] encode(int artResourceId, int sizePx) {
+        Bitmap art = BitmapFactory.decodeResource(mResources, artResourceId);
+        if (art == null) {
+            Log.w(LOG_TAG, "Couldn't decode art resource " + artResourceId);
+            return null;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(art, sizePx, sizePx, true);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        scaled.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        if (scaled != art) {
+            scaled.recycle();
+        }
+        art.recycle();
+        return byteStream.toByteArray();
+    }
+
+    private static byte[] readFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    return null;
+                }
+                offset += read;
+            }
+            return bytes;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't read " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        // Write to the side and rename, so a reader never sees a partly written icon
+        File tmp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't write " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
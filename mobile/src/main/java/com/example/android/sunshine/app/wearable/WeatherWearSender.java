@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.shared.WearForecast;
+import com.example.android.sunshine.shared.WearForecastCodec;
+import com.example.android.sunshine.shared.WearForecastDelta;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Sends the forecast to the watch, sending as little as it can.
+ * <p/>
+ * The phone remembers the forecast it last sent and the sequence number it sent it with.  If
+ * nothing has changed since, nothing is sent.  If only some days or values have changed, and
+ * the icon is the same, a {@link WearForecastDelta} of just those goes over the message API to
+ * {@link #WEATHER_DELTA_PATH}.  Otherwise, or if the delta reached no watch, the whole forecast
+ * is put in the data item at {@link #WEATHER_PATH}, which the watch gets whenever it connects.
+ * A watch that can't apply a delta, because it missed one or has restarted, asks for the whole
+ * forecast again with a message to {@link #WEATHER_RESYNC_PATH}.
+ * <p/>
+ * When the watch asks for a sync it says which forecast it has.  If that's still the one last
+ * sent, {@link #answer} just confirms it with a message to {@link #WEATHER_CURRENT_PATH}.
+ */
+public class WeatherWearSender {
+    private static final String LOG_TAG = WeatherWearSender.class.getSimpleName();
+
+    public static final String WEATHER_PATH = "/weather";
+    public static final String WEATHER_DELTA_PATH = "/weather_delta";
+    public static final String WEATHER_RESYNC_PATH = "/weather_resync";
+    public static final String WEATHER_CURRENT_PATH = "/weather_current";
+
+    private static final String WEATHER_FORECAST_KEY = "weather_forecast_key";
+    private static final String WEATHER_SEQ_KEY = "weather_seq_key";
+    private static final String WEATHER_HASH_KEY = "weather_hash_key";
+    private static final String WEATHER_TEMP_ICON_KEY = "weather_temp_icon_key";
+    private static final String WEATHER_TEMP_ICON_DIGEST_KEY = "weather_temp_icon_digest_key";
+
+    // Size of the weather icon sent to the watch
+    private static final int ICON_SIZE_PX = 52;
+
+    // How long to wait for a delta to reach the watch before sending the whole forecast instead
+    private static final long DELTA_DELIVERY_TIMEOUT_MILLIS = 5 * 1000;
+
+    // What was last sent, so the next send can be compared against it
+    private static final String PREFS_NAME = "wear_sync";
+    private static final String PREF_SEQ = "seq";
+    private static final String PREF_HASH = "hash";
+    private static final String PREF_PAYLOAD = "payload";
+    private static final String PREF_ICON_DIGEST = "icon_digest";
+
+    /**
+     * Sends the current forecast for the preferred location to the watch.
+     *
+     * @param full Whether to send the whole forecast even if the watch should already have
+     *             most or all of it, because the watch has asked for it.
+     */
+    public static synchronized void send(Context context, boolean full) {
+        List<ForecastSnapshot.Day> days =
+                ForecastSnapshot.getCurrent(context).getDaysFrom(System.currentTimeMillis());
+        if (days.isEmpty()) {
+            return;
+        }
+
+        int artResourceId = Utility.getArtResourceForWeatherCondition(days.get(0).weatherId);
+        // Encoded once per icon and size, then reused from the cache on every later sync
+        WeatherIconAssets.Icon icon = WeatherIconAssets.getInstance(context)
+                .getIcon(artResourceId, ICON_SIZE_PX);
+        String iconDigest = icon != null ? icon.digest : null;
+
+        WearForecast forecast = toWearForecast(context, days);
+        byte[] payload = WearForecastCodec.encode(forecast);
+        int hash = WearForecastCodec.hash(payload);
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int lastSeq = prefs.getInt(PREF_SEQ, 0);
+        String lastPayload = prefs.getString(PREF_PAYLOAD, null);
+        boolean sameIcon = TextUtils.equals(iconDigest, prefs.getString(PREF_ICON_DIGEST, null));
+        if (!full && lastPayload != null && sameIcon && hash == prefs.getInt(PREF_HASH, 0)) {
+            Log.d(LOG_TAG, "Forecast unchanged since " + lastSeq + ", not sending");
+            return;
+        }
+
+        int seq = lastSeq + 1;
+        byte[] delta = null;
+        if (!full && lastPayload != null && sameIcon) {
+            try {
+                WearForecast lastForecast =
+                        WearForecastCodec.decode(Base64.decode(lastPayload, Base64.DEFAULT));
+                delta = WearForecastDelta.encode(lastForecast, forecast, lastSeq, seq);
+            } catch (IllegalArgumentException e) {
+                // Saved by an older version, or damaged; send the whole forecast instead
+                Log.w(LOG_TAG, "Couldn't read the last forecast sent", e);
+            }
+            if (delta != null && delta.length >= payload.length) {
+                delta = null;
+            }
+        }
+
+        WearableConnectionManager connection = WearableConnectionManager.getInstance(context);
+        if (delta != null) {
+            Log.d(LOG_TAG, "Sending " + delta.length + " byte delta from " + lastSeq + " to " + seq);
+            int nodes;
+            try {
+                nodes = connection.sendMessage(WEATHER_DELTA_PATH, delta)
+                        .await(DELTA_DELIVERY_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                nodes = 0;
+            }
+            if (nodes == 0) {
+                // Messages aren't kept for a watch that isn't connected, so the watch would be
+                // left behind the sequence number saved below
+                Log.d(LOG_TAG, "Delta " + seq + " reached no watch");
+                delta = null;
+            }
+        }
+        if (delta == null) {
+            Log.d(LOG_TAG, "Sending whole forecast as " + seq);
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
+            putDataMapRequest.getDataMap().putByteArray(WEATHER_FORECAST_KEY, payload);
+            putDataMapRequest.getDataMap().putInt(WEATHER_SEQ_KEY, seq);
+            putDataMapRequest.getDataMap().putInt(WEATHER_HASH_KEY, hash);
+            if (icon != null) {
+                // The watch only fetches the asset if it hasn't seen an icon with this digest
+                putDataMapRequest.getDataMap().putAsset(WEATHER_TEMP_ICON_KEY,
+                        Asset.createFromBytes(icon.bytes));
+                putDataMapRequest.getDataMap().putString(WEATHER_TEMP_ICON_DIGEST_KEY, iconDigest);
+            }
+            // Queued on the shared connection, which sends it once connected and folds it into
+            // any other update to the watch that's still waiting
+            connection.putDataItem(putDataMapRequest.asPutDataRequest());
+        }
+
+        prefs.edit()
+                .putInt(PREF_SEQ, seq)
+                .putInt(PREF_HASH, hash)
+                .putString(PREF_PAYLOAD, Base64.encodeToString(payload, Base64.NO_WRAP))
+                .putString(PREF_ICON_DIGEST, iconDigest)
+                .apply();
+    }
+
+    /**
+     * Answers a watch asking for a sync from what's already in the database.
+     *
+     * @param watchSeq The sequence number of the forecast the watch has, or 0 if it has none.
+     */
+    public static synchronized void answer(Context context, int watchSeq) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int sentSeq = prefs.getInt(PREF_SEQ, 0);
+        // Sends a delta if the database has moved on since the last send, which brings the
+        // watch up to date if it has the forecast last sent
+        send(context, false);
+        int lastSeq = prefs.getInt(PREF_SEQ, 0);
+        if (watchSeq == 0 || (watchSeq != lastSeq && watchSeq != sentSeq)) {
+            send(context, true);
+        } else if (watchSeq == lastSeq) {
+            // The watch is up to date; tell it so it stops asking
+            Log.d(LOG_TAG, "Watch already has forecast " + watchSeq);
+            WearableConnectionManager.getInstance(context).sendMessage(WEATHER_CURRENT_PATH,
+                    ByteBuffer.allocate(4).putInt(watchSeq).array());
+        }
+    }
+
+    /**
+     * The watch gets the raw values for every day and converts and formats them itself.
+     */
+    private static WearForecast toWearForecast(Context context, List<ForecastSnapshot.Day> days) {
+        TimeZone timeZone = TimeZone.getDefault();
+        List<WearForecast.Day> wearDays = new ArrayList<WearForecast.Day>(days.size());
+        for (ForecastSnapshot.Day day : days) {
+            wearDays.add(new WearForecast.Day(
+                    WearForecast.toEpochDay(day.date, timeZone),
+                    day.weatherId,
+                    day.minTemp,
+                    day.maxTemp,
+                    (int) Math.round(day.humidity),
+                    day.windSpeed,
+                    (int) Math.round(day.degrees)));
+        }
+        return new WearForecast(!Utility.isMetric(context), wearDays);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * The forecast as the phone sends it to the watch: raw values for each day, in the units the
+ * phone stores them in.  Converting and formatting them is left to the watch.
+ */
+public final class WearForecast {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        // Days since 1970-01-01 in the phone's time zone; see toEpochDay
+        public final int epochDay;
+        public final int weatherId;
+        // Celsius
+        public final double minTemp;
+        public final double maxTemp;
+        // Percent
+        public final int humidity;
+        public final double windSpeed;
+        // Meteorological degrees, 0 is north
+        public final int windDirection;
+
+        public Day(int epochDay, int weatherId, double minTemp, double maxTemp, int humidity,
+                   double windSpeed, int windDirection) {
+            this.epochDay = epochDay;
+            this.weatherId = weatherId;
+            this.minTemp = minTemp;
+            this.maxTemp = maxTemp;
+            this.humidity = humidity;
+            this.windSpeed = windSpeed;
+            this.windDirection = windDirection;
+        }
+    }
+
+    // Whether the user picked imperial units on the phone, as a hint for the watch
+    public final boolean imperialUnits;
+    // Sorted by date
+    private final List<Day> mDays;
+
+    public WearForecast(boolean imperialUnits, List<Day> days) {
+        this.imperialUnits = imperialUnits;
+        mDays = Collections.unmodifiableList(new ArrayList<Day>(days));
+    }
+
+    public List<Day> getDays() {
+        return mDays;
+    }
+
+    /**
+     * @return the forecast for the day, or null if it isn't part of the forecast
+     */
+    public Day getDay(int epochDay) {
+        for (int i = 0; i < mDays.size(); i++) {
+            Day day = mDays.get(i);
+            if (day.epochDay == epochDay) {
+                return day;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of days since 1970-01-01 at the given time, in the given time zone
+     */
+    public static int toEpochDay(long millis, TimeZone timeZone) {
+        long local = millis + timeZone.getOffset(millis);
+        // Round towards negative infinity, so times before 1970 land on the right day
+        return (int) (local >= 0 ? local / DAY_IN_MILLIS : (local - DAY_IN_MILLIS + 1) / DAY_IN_MILLIS);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Packs a {@link WearForecast} into the byte array the phone puts in the watch's data item.
+ * <p/>
+ * All values are big endian.  The header is
+ * <pre>
+ *   byte  format version
+ *   byte  flags
+ *   byte  size of each day record
+ *   byte  number of days
+ *   int   epoch day of the first day
+ * </pre>
+ * followed by one record per day:
+ * <pre>
+ *   byte  days after the first day, unsigned
+ *   short weather id
+ *   short min temperature, tenths of a degree Celsius
+ *   short max temperature, tenths of a degree Celsius
+ *   byte  humidity percent, unsigned
+ *   short wind speed, tenths, unsigned
+ *   short wind direction, degrees
+ * </pre>
+ * Fields may be added to the end of the day record without changing the version; a reader
+ * skips whatever follows the fields it knows about, using the record size from the header.  A
+ * change to any existing field needs a new version, which older readers reject.
+ */
+public final class WearForecastCodec {
+
+    public static final int FORMAT_VERSION = 1;
+
+    static final int FLAG_IMPERIAL_UNITS = 1;
+
+    static final int HEADER_SIZE = 8;
+    static final int DAY_RECORD_SIZE = 12;
+    // The day count and offsets are single unsigned bytes
+    public static final int MAX_DAYS = 255;
+
+    private WearForecastCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the forecast has too many days, or its days aren't in
+     *                                  date order within {@link #MAX_DAYS} of the first
+     */
+    public static byte[] encode(WearForecast forecast) {
+        List<WearForecast.Day> days = forecast.getDays();
+        if (days.size() > MAX_DAYS) {
+            throw new IllegalArgumentException("Too many days: " + days.size());
+        }
+        int firstEpochDay = days.isEmpty() ? 0 : days.get(0).epochDay;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + DAY_RECORD_SIZE * days.size());
+        buffer.put((byte) FORMAT_VERSION);
+        buffer.put((byte) (forecast.imperialUnits ? FLAG_IMPERIAL_UNITS : 0));
+        buffer.put((byte) DAY_RECORD_SIZE);
+        buffer.put((byte) days.size());
+        buffer.putInt(firstEpochDay);
+        for (int i = 0; i < days.size(); i++) {
+            WearForecast.Day day = days.get(i);
+            int offset = day.epochDay - firstEpochDay;
+            if (offset < 0 || offset > MAX_DAYS) {
+                throw new IllegalArgumentException("Day out of range: " + day.epochDay);
+            }
+            buffer.put((byte) offset);
+            buffer.putShort((short) day.weatherId);
+            buffer.putShort(toTenths(day.minTemp, Short.MIN_VALUE, Short.MAX_VALUE));
+            buffer.putShort(toTenths(day.maxTemp, Short.MIN_VALUE, Short.MAX_VALUE));
+            buffer.put((byte) clamp(day.humidity, 0, 0xff));
+            buffer.putShort(toTenths(day.windSpeed, 0, 0xffff));
+            buffer.putShort((short) day.windDirection);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the payload isn't a forecast in a format this version
+     *                                  of the codec understands
+     */
+    public static WearForecast decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header");
+        }
+        int version = buffer.get() & 0xff;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported format version " + version);
+        }
+        int flags = buffer.get() & 0xff;
+        int recordSize = buffer.get() & 0xff;
+        if (recordSize < DAY_RECORD_SIZE) {
+            throw new IllegalArgumentException("Day record too short: " + recordSize);
+        }
+        int count = buffer.get() & 0xff;
+        int firstEpochDay = buffer.getInt();
+        if (buffer.remaining() < recordSize * count) {
+            throw new IllegalArgumentException("Truncated payload, expected " + count + " days");
+        }
+
+        List<WearForecast.Day> days = new ArrayList<WearForecast.Day>(count);
+        for (int i = 0; i < count; i++) {
+            int start = buffer.position();
+            int epochDay = firstEpochDay + (buffer.get() & 0xff);
+            int weatherId = buffer.getShort();
+            double minTemp = buffer.getShort() / 10.0;
+            double maxTemp = buffer.getShort() / 10.0;
+            int humidity = buffer.get() & 0xff;
+            double windSpeed = (buffer.getShort() & 0xffff) / 10.0;
+            int windDirection = buffer.getShort();
+            days.add(new WearForecast.Day(epochDay, weatherId, minTemp, maxTemp, humidity,
+                    windSpeed, windDirection));
+            // Skip any fields added after this version
+            buffer.position(start + recordSize);
+        }
+        return new WearForecast((flags & FLAG_IMPERIAL_UNITS) != 0, days);
+    }
+
+    /**
+     * @return the content hash of an encoded forecast, which is the same on both ends of the
+     * link for the same forecast
+     */
+    public static int hash(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    static short toTenths(double value, int min, int max) {
+        return (short) clamp((int) Math.round(value * 10), min, max);
+    }
+
+    static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
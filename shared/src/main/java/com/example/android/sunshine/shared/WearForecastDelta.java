@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The difference between two forecasts, so the phone only sends the watch the days and
+ * fields that changed since the forecast it last sent.
+ * <p/>
+ * Every forecast the phone sends has a sequence number.  A delta names the sequence number of
+ * the forecast it applies to and carries the content hash of the forecast that results, so
+ * the watch can tell when it has missed an update and ask for the whole forecast again.
+ * <p/>
+ * All values are big endian.  The header is
+ * <pre>
+ *   byte  format version
+ *   byte  flags, as in the full payload
+ *   byte  number of days in the resulting forecast
+ *   byte  number of changed days that follow
+ *   int   sequence number of the forecast the delta applies to
+ *   int   sequence number of the resulting forecast
+ *   int   content hash of the resulting forecast, see {@link WearForecastCodec#hash}
+ *   int   epoch day of the first day of the resulting forecast
+ * </pre>
+ * followed by, for each changed day:
+ * <pre>
+ *   byte  days after the first day, unsigned
+ *   byte  mask of the fields that follow, FIELD_ constants
+ *   the fields in the mask, in the same order and encoding as the full payload
+ * </pre>
+ * Days of the resulting forecast that aren't listed are copied from the forecast the delta
+ * applies to.  The days of a forecast are taken to be consecutive, as they are when they come
+ * from the sync adapter; anything else is caught by the content hash.
+ */
+public final class WearForecastDelta {
+
+    public static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 20;
+
+    static final int FIELD_WEATHER_ID = 1;
+    static final int FIELD_MIN_TEMP = 1 << 1;
+    static final int FIELD_MAX_TEMP = 1 << 2;
+    static final int FIELD_HUMIDITY = 1 << 3;
+    static final int FIELD_WIND_SPEED = 1 << 4;
+    static final int FIELD_WIND_DIRECTION = 1 << 5;
+    static final int ALL_FIELDS = (1 << 6) - 1;
+
+    private WearForecastDelta() {
+    }
+
+    /**
+     * @param base    The forecast the watch has, as decoded from the payload last sent.
+     * @param target  The forecast to send.
+     * @param baseSeq The sequence number {@code base} was sent with.
+     * @param seq     The sequence number to give {@code target}.
+     */
+    public static byte[] encode(WearForecast base, WearForecast target, int baseSeq, int seq) {
+        byte[] targetPayload = WearForecastCodec.encode(target);
+        // Compare the values as the watch will see them, after rounding
+        WearForecast rounded = WearForecastCodec.decode(targetPayload);
+        List<WearForecast.Day> days = rounded.getDays();
+        int firstEpochDay = days.isEmpty() ? 0 : days.get(0).epochDay;
+
+        ByteBuffer records = ByteBuffer.allocate(days.size() * (2 + WearForecastCodec.DAY_RECORD_SIZE));
+        int changed = 0;
+        for (int i = 0; i < days.size(); i++) {
+            WearForecast.Day day = days.get(i);
+            WearForecast.Day old = base.getDay(day.epochDay);
+            int mask = old == null ? ALL_FIELDS : changedFields(old, day);
+            if (mask == 0) {
+                continue;
+            }
+            changed++;
+            records.put((byte) (day.epochDay - firstEpochDay));
+            records.put((byte) mask);
+            if ((mask & FIELD_WEATHER_ID) != 0) {
+                records.putShort((short) day.weatherId);
+            }
+            if ((mask & FIELD_MIN_TEMP) != 0) {
+                records.putShort(WearForecastCodec.toTenths(day.minTemp, Short.MIN_VALUE, Short.MAX_VALUE));
+            }
+            if ((mask & FIELD_MAX_TEMP) != 0) {
+                records.putShort(WearForecastCodec.toTenths(day.maxTemp, Short.MIN_VALUE, Short.MAX_VALUE));
+            }
+            if ((mask & FIELD_HUMIDITY) != 0) {
+                records.put((byte) day.humidity);
+            }
+            if ((mask & FIELD_WIND_SPEED) != 0) {
+                records.putShort(WearForecastCodec.toTenths(day.windSpeed, 0, 0xffff));
+            }
+            if ((mask & FIELD_WIND_DIRECTION) != 0) {
+                records.putShort((short) day.windDirection);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.position());
+        buffer.put((byte) FORMAT_VERSION);
+        buffer.put((byte) (rounded.imperialUnits ? WearForecastCodec.FLAG_IMPERIAL_UNITS : 0));
+        buffer.put((byte) days.size());
+        buffer.put((byte) changed);
+        buffer.putInt(baseSeq);
+        buffer.putInt(seq);
+        buffer.putInt(WearForecastCodec.hash(targetPayload));
+        buffer.putInt(firstEpochDay);
+        buffer.put(records.array(), 0, records.position());
+        return buffer.array();
+    }
+
+    /**
+     * @return the sequence number of the forecast the delta applies to
+     */
+    public static int getBaseSeq(byte[] delta) {
+        return header(delta).getInt(4);
+    }
+
+    /**
+     * @return the sequence number of the forecast that results from the delta
+     */
+    public static int getSeq(byte[] delta) {
+        return header(delta).getInt(8);
+    }
+
+    /**
+     * @param base The forecast with the sequence number {@link #getBaseSeq} returns.
+     * @throws IllegalArgumentException if the delta is malformed, or applying it doesn't give
+     *                                  the forecast it was made from, in which case the whole
+     *                                  forecast needs sending again
+     */
+    public static WearForecast apply(WearForecast base, byte[] delta) {
+        ByteBuffer buffer = header(delta);
+        boolean imperialUnits = (buffer.get(1) & WearForecastCodec.FLAG_IMPERIAL_UNITS) != 0;
+        int count = buffer.get(2) & 0xff;
+        int changed = buffer.get(3) & 0xff;
+        int hash = buffer.getInt(12);
+        int firstEpochDay = buffer.getInt(16);
+        buffer.position(HEADER_SIZE);
+
+        WearForecast.Day[] days = new WearForecast.Day[count];
+        for (int i = 0; i < count; i++) {
+            days[i] = base.getDay(firstEpochDay + i);
+        }
+        for (int i = 0; i < changed; i++) {
+            if (buffer.remaining() < 2) {
+                throw new IllegalArgumentException("Truncated delta");
+            }
+            int offset = buffer.get() & 0xff;
+            int mask = buffer.get() & 0xff;
+            if (offset >= count) {
+                throw new IllegalArgumentException("Day out of range: " + offset);
+            }
+            WearForecast.Day old = days[offset];
+            if (old == null) {
+                if (mask != ALL_FIELDS) {
+                    throw new IllegalArgumentException("Partial update to a new day");
+                }
+                old = new WearForecast.Day(firstEpochDay + offset, 0, 0, 0, 0, 0, 0);
+            }
+            if (buffer.remaining() < fieldsSize(mask)) {
+                throw new IllegalArgumentException("Truncated delta");
+            }
+            days[offset] = new WearForecast.Day(
+                    firstEpochDay + offset,
+                    (mask & FIELD_WEATHER_ID) != 0 ? buffer.getShort() : old.weatherId,
+                    (mask & FIELD_MIN_TEMP) != 0 ? buffer.getShort() / 10.0 : old.minTemp,
+                    (mask & FIELD_MAX_TEMP) != 0 ? buffer.getShort() / 10.0 : old.maxTemp,
+                    (mask & FIELD_HUMIDITY) != 0 ? buffer.get() & 0xff : old.humidity,
+                    (mask & FIELD_WIND_SPEED) != 0 ? (buffer.getShort() & 0xffff) / 10.0 : old.windSpeed,
+                    (mask & FIELD_WIND_DIRECTION) != 0 ? buffer.getShort() : old.windDirection);
+        }
+
+        // The result must cover the same days as the forecast it was made from, with no gaps
+        // left by days the watch never had
+        List<WearForecast.Day> result = new ArrayList<WearForecast.Day>(count);
+        for (WearForecast.Day day : days) {
+            if (day != null) {
+                result.add(day);
+            }
+        }
+        WearForecast forecast = new WearForecast(imperialUnits, result);
+        if (WearForecastCodec.hash(WearForecastCodec.encode(forecast)) != hash) {
+            throw new IllegalArgumentException("Content hash mismatch");
+        }
+        return forecast;
+    }
+
+    private static ByteBuffer header(byte[] delta) {
+        if (delta.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header");
+        }
+        int version = delta[0] & 0xff;
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported format version " + version);
+        }
+        return ByteBuffer.wrap(delta);
+    }
+
+    private static int changedFields(WearForecast.Day old, WearForecast.Day day) {
+        int mask = 0;
+        if (old.weatherId != day.weatherId) {
+            mask |= FIELD_WEATHER_ID;
+        }
+        if (old.minTemp != day.minTemp) {
+            mask |= FIELD_MIN_TEMP;
+        }
+        if (old.maxTemp != day.maxTemp) {
+            mask |= FIELD_MAX_TEMP;
+        }
+        if (old.humidity != day.humidity) {
+            mask |= FIELD_HUMIDITY;
+        }
+        if (old.windSpeed != day.windSpeed) {
+            mask |= FIELD_WIND_SPEED;
+        }
+        if (old.windDirection != day.windDirection) {
+            mask |= FIELD_WIND_DIRECTION;
+        }
+        return mask;
+    }
+
+    private static int fieldsSize(int mask) {
+        int size = 0;
+        size += (mask & FIELD_WEATHER_ID) != 0 ? 2 : 0;
+        size += (mask & FIELD_MIN_TEMP) != 0 ? 2 : 0;
+        size += (mask & FIELD_MAX_TEMP) != 0 ? 2 : 0;
+        size += (mask & FIELD_HUMIDITY) != 0 ? 1 : 0;
+        size += (mask & FIELD_WIND_SPEED) != 0 ? 2 : 0;
+        size += (mask & FIELD_WIND_DIRECTION) != 0 ? 2 : 0;
+        return size;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs on the JVM with {@code ./gradlew :shared:test}.  Besides checking the format, this
+ * prints the payload size and how long the watch takes to decode it, so changes to the format
+ * can be compared.
+ */
+public class TestWearForecastCodec {
+
+    // The number of days the sync adapter asks for
+    private static final int NUM_DAYS = 14;
+    private static final int DECODE_ITERATIONS = 100000;
+
+    private static WearForecast createForecast(int numDays) {
+        List<WearForecast.Day> days = new ArrayList<WearForecast.Day>(numDays);
+        for (int i = 0; i < numDays; i++) {
+            days.add(new WearForecast.Day(16800 + i, 800 + i, -12.3 + i, 21.7 + i, 40 + i,
+                    5.5 + i, 10 * i));
+        }
+        return new WearForecast(false, days);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        WearForecast forecast = createForecast(NUM_DAYS);
+        WearForecast decoded = WearForecastCodec.decode(WearForecastCodec.encode(forecast));
+
+        assertEquals(forecast.imperialUnits, decoded.imperialUnits);
+        assertEquals(NUM_DAYS, decoded.getDays().size());
+        for (int i = 0; i < NUM_DAYS; i++) {
+            WearForecast.Day expected = forecast.getDays().get(i);
+            WearForecast.Day actual = decoded.getDays().get(i);
+            assertEquals(expected.epochDay, actual.epochDay);
+            assertEquals(expected.weatherId, actual.weatherId);
+            assertEquals(expected.minTemp, actual.minTemp, 0.05);
+            assertEquals(expected.maxTemp, actual.maxTemp, 0.05);
+            assertEquals(expected.humidity, actual.humidity);
+            assertEquals(expected.windSpeed, actual.windSpeed, 0.05);
+            assertEquals(expected.windDirection, actual.windDirection);
+        }
+    }
+
+    @Test
+    public void testImperialFlag() {
+        WearForecast forecast = new WearForecast(true, createForecast(1).getDays());
+        assertTrue(WearForecastCodec.decode(WearForecastCodec.encode(forecast)).imperialUnits);
+    }
+
+    @Test
+    public void testEmptyForecast() {
+        WearForecast forecast = new WearForecast(false, new ArrayList<WearForecast.Day>());
+        byte[] payload = WearForecastCodec.encode(forecast);
+        assertEquals(WearForecastCodec.HEADER_SIZE, payload.length);
+        assertTrue(WearForecastCodec.decode(payload).getDays().isEmpty());
+    }
+
+    @Test
+    public void testPayloadSize() {
+        byte[] payload = WearForecastCodec.encode(createForecast(NUM_DAYS));
+        System.out.println("Payload for " + NUM_DAYS + " days: " + payload.length + " bytes");
+        assertEquals(WearForecastCodec.HEADER_SIZE + NUM_DAYS * WearForecastCodec.DAY_RECORD_SIZE,
+                payload.length);
+        // Well under the 100KB a data item can hold, and small enough for a message
+        assertTrue(payload.length < 256);
+    }
+
+    @Test
+    public void testDecodeTime() {
+        byte[] payload = WearForecastCodec.encode(createForecast(NUM_DAYS));
+        // Warm up, so the timing isn't of the interpreter
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            WearForecastCodec.decode(payload);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < DECODE_ITERATIONS; i++) {
+            WearForecastCodec.decode(payload);
+        }
+        long nanosPerDecode = (System.nanoTime() - start) / DECODE_ITERATIONS;
+        System.out.println("Decoding " + NUM_DAYS + " days: " + nanosPerDecode + " ns");
+        // Generous, so it only fails if decoding does something badly wrong
+        assertTrue(nanosPerDecode < 100000);
+    }
+
+    @Test
+    public void testSkipsFieldsAddedLater() {
+        byte[] payload = WearForecastCodec.encode(createForecast(2));
+        int recordSize = WearForecastCodec.DAY_RECORD_SIZE;
+        int extra = 3;
+        // Rewrite the payload as if a later writer added three bytes to every day record
+        byte[] extended = new byte[WearForecastCodec.HEADER_SIZE + 2 * (recordSize + extra)];
+        System.arraycopy(payload, 0, extended, 0, WearForecastCodec.HEADER_SIZE);
+        extended[2] = (byte) (recordSize + extra);
+        for (int i = 0; i < 2; i++) {
+            System.arraycopy(payload, WearForecastCodec.HEADER_SIZE + i * recordSize,
+                    extended, WearForecastCodec.HEADER_SIZE + i * (recordSize + extra), recordSize);
+        }
+
+        WearForecast decoded = WearForecastCodec.decode(extended);
+        assertArrayEquals(payload, WearForecastCodec.encode(decoded));
+    }
+
+    @Test
+    public void testRejectsUnknownVersion() {
+        byte[] payload = WearForecastCodec.encode(createForecast(1));
+        payload[0] = (byte) (WearForecastCodec.FORMAT_VERSION + 1);
+        try {
+            WearForecastCodec.decode(payload);
+            fail("A payload in a newer format should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedPayload() {
+        byte[] payload = WearForecastCodec.encode(createForecast(2));
+        try {
+            WearForecastCodec.decode(Arrays.copyOf(payload, payload.length - 1));
+            fail("A truncated payload should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testValuesAreClamped() {
+        List<WearForecast.Day> days = new ArrayList<WearForecast.Day>();
+        days.add(new WearForecast.Day(0, 800, -5000, 5000, 300, -1, 0));
+        WearForecast.Day day = WearForecastCodec.decode(
+                WearForecastCodec.encode(new WearForecast(false, days))).getDays().get(0);
+        assertEquals(Short.MIN_VALUE / 10.0, day.minTemp, 0.05);
+        assertEquals(Short.MAX_VALUE / 10.0, day.maxTemp, 0.05);
+        assertEquals(255, day.humidity);
+        assertEquals(0, day.windSpeed, 0.05);
+    }
+
+    @Test
+    public void testGetDay() {
+        WearForecast forecast = createForecast(3);
+        assertEquals(801, forecast.getDay(16801).weatherId);
+        assertNull(forecast.getDay(16803));
+    }
+
+    @Test
+    public void testToEpochDay() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals(0, WearForecast.toEpochDay(0, utc));
+        assertEquals(-1, WearForecast.toEpochDay(-1, utc));
+        // 2014-12-20 00:00 UTC is still the 19th in New York
+        long millis = 1419033600000L;
+        assertEquals(16424, WearForecast.toEpochDay(millis, utc));
+        assertFalse(WearForecast.toEpochDay(millis, TimeZone.getTimeZone("America/New_York"))
+                == WearForecast.toEpochDay(millis, utc));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestWearForecastDelta {
+
+    private static final int NUM_DAYS = 14;
+
+    private static List<WearForecast.Day> createDays(int firstEpochDay, int numDays) {
+        List<WearForecast.Day> days = new ArrayList<WearForecast.Day>(numDays);
+        for (int i = 0; i < numDays; i++) {
+            int epochDay = firstEpochDay + i;
+            days.add(new WearForecast.Day(epochDay, 800, epochDay % 10, 20 + epochDay % 10, 50, 4.5, 90));
+        }
+        return days;
+    }
+
+    /**
+     * Applies a delta the way the watch does, to the forecast as the watch decoded it.
+     */
+    private static WearForecast roundTrip(WearForecast base, WearForecast target) {
+        WearForecast watchBase = WearForecastCodec.decode(WearForecastCodec.encode(base));
+        byte[] delta = WearForecastDelta.encode(watchBase, target, 1, 2);
+        assertEquals(1, WearForecastDelta.getBaseSeq(delta));
+        assertEquals(2, WearForecastDelta.getSeq(delta));
+        WearForecast result = WearForecastDelta.apply(watchBase, delta);
+        assertArrayEquals("Error: the delta didn't reproduce the forecast",
+                WearForecastCodec.encode(target), WearForecastCodec.encode(result));
+        return result;
+    }
+
+    @Test
+    public void testUnchangedForecastHasEmptyDelta() {
+        WearForecast forecast = new WearForecast(false, createDays(100, NUM_DAYS));
+        byte[] delta = WearForecastDelta.encode(forecast, forecast, 1, 2);
+        assertEquals(WearForecastDelta.HEADER_SIZE, delta.length);
+        roundTrip(forecast, forecast);
+    }
+
+    @Test
+    public void testOnlyChangedFieldsAreSent() {
+        List<WearForecast.Day> days = createDays(100, NUM_DAYS);
+        WearForecast base = new WearForecast(false, days);
+        WearForecast.Day old = days.get(3);
+        days.set(3, new WearForecast.Day(old.epochDay, old.weatherId, old.minTemp,
+                old.maxTemp + 2, old.humidity, old.windSpeed, old.windDirection));
+        WearForecast target = new WearForecast(false, days);
+
+        byte[] delta = WearForecastDelta.encode(base, target, 1, 2);
+        // One day, with just its max temperature
+        assertEquals(WearForecastDelta.HEADER_SIZE + 2 + 2, delta.length);
+        roundTrip(base, target);
+    }
+
+    @Test
+    public void testWindowMovesForward() {
+        WearForecast base = new WearForecast(false, createDays(100, NUM_DAYS));
+        // A day later, the first day has dropped off and a new last day has appeared
+        WearForecast target = new WearForecast(false, createDays(101, NUM_DAYS));
+        byte[] delta = WearForecastDelta.encode(base, target, 1, 2);
+        assertEquals(WearForecastDelta.HEADER_SIZE + 2 + WearForecastCodec.DAY_RECORD_SIZE - 1,
+                delta.length);
+        assertTrue("Error: the delta should be smaller than the whole forecast",
+                delta.length < WearForecastCodec.encode(target).length);
+        roundTrip(base, target);
+    }
+
+    @Test
+    public void testUnitsChange() {
+        List<WearForecast.Day> days = createDays(100, NUM_DAYS);
+        WearForecast result = roundTrip(new WearForecast(false, days), new WearForecast(true, days));
+        assertTrue(result.imperialUnits);
+    }
+
+    @Test
+    public void testRejectsDeltaForOtherBase() {
+        WearForecast base = new WearForecast(false, createDays(100, NUM_DAYS));
+        List<WearForecast.Day> changed = createDays(100, NUM_DAYS);
+        changed.set(0, new WearForecast.Day(100, 500, 0, 0, 0, 0, 0));
+        WearForecast target = new WearForecast(false, changed);
+        byte[] delta = WearForecastDelta.encode(base, target, 1, 2);
+
+        // The watch has a different forecast than the phone thinks
+        WearForecast other = new WearForecast(false, createDays(90, NUM_DAYS));
+        try {
+            WearForecastDelta.apply(other, delta);
+            fail("Applying a delta to the wrong forecast should be caught by the hash");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedDelta() {
+        List<WearForecast.Day> days = createDays(100, NUM_DAYS);
+        WearForecast base = new WearForecast(false, days);
+        WearForecast target = new WearForecast(false, createDays(105, NUM_DAYS));
+        byte[] delta = WearForecastDelta.encode(base, target, 1, 2);
+        byte[] truncated = new byte[delta.length - 3];
+        System.arraycopy(delta, 0, truncated, 0, truncated.length);
+        try {
+            WearForecastDelta.apply(base, truncated);
+            fail("A truncated delta should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
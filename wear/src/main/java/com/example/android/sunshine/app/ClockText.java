@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import com.example.android.sunshine.shared.WearForecast;
+
+import java.util.TimeZone;
+
+/**
+ * The time as the watch face shows it, "hh:mm:ss AM" or "hh:mm AM" without seconds, written
+ * into a reused {@code char[]} so drawing a frame allocates nothing.
+ * <p/>
+ * The fields are worked out from the UTC time and the zone offset rather than with a
+ * {@link java.util.Calendar}, and {@link #update} reports which parts changed so the watch face
+ * only formats the date and measures text when it has to.
+ */
+class ClockText {
+
+    static final int CHANGED_SECOND = 1;
+    static final int CHANGED_MINUTE = 1 << 1;
+    static final int CHANGED_DAY = 1 << 2;
+
+    private static final long SECOND_IN_MILLIS = 1000;
+    private static final int SECONDS_IN_DAY = 24 * 60 * 60;
+
+    private static final int LENGTH_WITH_SECONDS = 11;
+    private static final int LENGTH_WITHOUT_SECONDS = 8;
+
+    /**
+     * The time, the first {@link #length} characters of it.
+     */
+    final char[] chars = "12:00:00 AM".toCharArray();
+    int length = LENGTH_WITH_SECONDS;
+
+    private boolean mShowSeconds = true;
+
+    private int mEpochDay = Integer.MIN_VALUE;
+    private int mMinuteOfDay = -1;
+    private int mSecondOfDay = -1;
+
+    /**
+     * Sets the text to the time at {@code now} in {@code timeZone}.
+     *
+     * @return which parts of the time changed since the last call, CHANGED_ flags.  A day or
+     * minute change is also reported as the smaller units changing.
+     */
+    int update(long now, TimeZone timeZone) {
+        int epochDay = WearForecast.toEpochDay(now, timeZone);
+        long local = now + timeZone.getOffset(now);
+        // Rounded down the same way as the epoch day
+        long localSeconds = local >= 0
+                ? local / SECOND_IN_MILLIS : (local - SECOND_IN_MILLIS + 1) / SECOND_IN_MILLIS;
+        int secondOfDay = (int) (localSeconds - (long) epochDay * SECONDS_IN_DAY);
+        int minuteOfDay = secondOfDay / 60;
+
+        int changed = 0;
+        if (epochDay != mEpochDay) {
+            changed |= CHANGED_DAY | CHANGED_MINUTE | CHANGED_SECOND;
+        } else if (minuteOfDay != mMinuteOfDay) {
+            changed |= CHANGED_MINUTE | CHANGED_SECOND;
+        } else if (secondOfDay != mSecondOfDay) {
+            changed |= CHANGED_SECOND;
+        }
+        mEpochDay = epochDay;
+        mMinuteOfDay = minuteOfDay;
+        mSecondOfDay = secondOfDay;
+
+        if ((changed & CHANGED_MINUTE) != 0) {
+            int hour = minuteOfDay / 60;
+            int hour12 = hour % 12 == 0 ? 12 : hour % 12;
+            putTwoDigits(0, hour12);
+            putTwoDigits(3, minuteOfDay % 60);
+            // The AM or PM goes after the seconds, or where they would have been
+            int amPm = mShowSeconds ? 8 : 5;
+            chars[amPm] = ' ';
+            chars[amPm + 1] = hour < 12 ? 'A' : 'P';
+            chars[amPm + 2] = 'M';
+            if (mShowSeconds) {
+                chars[5] = ':';
+            }
+        }
+        if (mShowSeconds && (changed & CHANGED_SECOND) != 0) {
+            putTwoDigits(6, secondOfDay % 60);
+        }
+        return changed;
+    }
+
+    /**
+     * @return the minute of the day of the last {@link #update}, in local time
+     */
+    int getMinuteOfDay() {
+        return mMinuteOfDay;
+    }
+
+    /**
+     * Sets whether the text includes the seconds.  Takes effect on the next {@link #update},
+     * which reports every part as changed.
+     */
+    void setShowSeconds(boolean showSeconds) {
+        if (showSeconds != mShowSeconds) {
+            mShowSeconds = showSeconds;
+            length = showSeconds ? LENGTH_WITH_SECONDS : LENGTH_WITHOUT_SECONDS;
+            reset();
+        }
+    }
+
+    /**
+     * Makes the next {@link #update} report every part as changed, after the time zone or
+     * anything else the text depends on changes.
+     */
+    void reset() {
+        mEpochDay = Integer.MIN_VALUE;
+    }
+
+    private void putTwoDigits(int index, int value) {
+        chars[index] = (char) ('0' + value / 10);
+        chars[index + 1] = (char) ('0' + value % 10);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.WearForecast;
+import com.example.android.sunshine.shared.WearForecastCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last forecast and icon the phone sent in the watch face's files, so a restarted
+ * watch face can show them straight away instead of asking the phone to sync.
+ * <p/>
+ * The forecast is a few hundred bytes and each icon a few KB, so they're read on the calling
+ * thread.  Writes go to a single background thread, in the order they were made.  Icons are
+ * kept by digest, one file each; there's one per kind of weather at most.
+ */
+class ForecastStore {
+    private static final String TAG = "ForecastStore";
+
+    private static final String FORECAST_FILE = "forecast";
+    private static final String ICON_FILE_PREFIX = "icon_";
+    private static final int STORE_VERSION = 1;
+
+    /**
+     * How long a forecast is trusted before the phone is asked for a new one.  The phone syncs
+     * every three hours, so this allows for one sync to be missed.
+     */
+    static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private final File mDir;
+    private final AtomicFile mForecastFile;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    // The forecast last loaded or saved
+    WearForecast forecast;
+    int seq;
+    long receivedAtMillis;
+    // Digest of the icon that goes with the forecast, or null if there isn't one
+    String iconDigest;
+    // The icon as it was loaded
+    byte[] iconBytes;
+
+    ForecastStore(Context context) {
+        mDir = context.getFilesDir();
+        mForecastFile = new AtomicFile(new File(mDir, FORECAST_FILE));
+    }
+
+    /**
+     * Reads whatever was saved last.  Anything missing or unreadable is left null.
+     */
+    void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mForecastFile.openRead());
+            if (in.readInt() == STORE_VERSION) {
+                int savedSeq = in.readInt();
+                long savedAt = in.readLong();
+                String savedDigest = in.readUTF();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                forecast = WearForecastCodec.decode(payload);
+                seq = savedSeq;
+                receivedAtMillis = savedAt;
+                iconDigest = savedDigest.isEmpty() ? null : savedDigest;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing received yet
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Couldn't read the saved forecast", e);
+        } finally {
+            close(in);
+        }
+
+        if (iconDigest != null) {
+            try {
+                iconBytes = iconFile(iconDigest).readFully();
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't read the saved icon", e);
+            }
+        }
+    }
+
+    /**
+     * @return whether the phone should be asked for a new forecast: there isn't one, it's too
+     * old, or it doesn't cover today
+     */
+    boolean isStale(long now, TimeZone timeZone) {
+        return forecast == null
+                || now - receivedAtMillis > MAX_AGE_MILLIS
+                || now < receivedAtMillis
+                || forecast.getDay(WearForecast.toEpochDay(now, timeZone)) == null;
+    }
+
+    void saveForecast(WearForecast forecast, int seq, long receivedAtMillis, String iconDigest) {
+        this.forecast = forecast;
+        this.seq = seq;
+        this.receivedAtMillis = receivedAtMillis;
+        this.iconDigest = iconDigest;
+        final byte[] payload = WearForecastCodec.encode(forecast);
+        final int savedSeq = seq;
+        final long savedAt = receivedAtMillis;
+        final String savedDigest = iconDigest != null ? iconDigest : "";
+        write(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream out = null;
+                try {
+                    out = mForecastFile.startWrite();
+                    DataOutputStream data = new DataOutputStream(out);
+                    data.writeInt(STORE_VERSION);
+                    data.writeInt(savedSeq);
+                    data.writeLong(savedAt);
+                    data.writeUTF(savedDigest);
+                    data.writeInt(payload.length);
+                    data.write(payload);
+                    data.flush();
+                    mForecastFile.finishWrite(out);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't save the forecast", e);
+                    mForecastFile.failWrite(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves an icon fetched from the phone, unless it's already saved.  Safe to call from any
+     * thread.
+     */
+    void saveIcon(String digest, final byte[] bytes) {
+        final AtomicFile file = iconFile(digest);
+        write(new Runnable() {
+            @Override
+            public void run() {
+                if (file.getBaseFile().exists()) {
+                    return;
+                }
+                FileOutputStream out = null;
+                try {
+                    out = file.startWrite();
+                    out.write(bytes);
+                    file.finishWrite(out);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't save the icon", e);
+                    file.failWrite(out);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lets any writes still queued finish, then stops the writer thread.
+     */
+    void close() {
+        mWriter.shutdown();
+    }
+
+    private AtomicFile iconFile(String digest) {
+        return new AtomicFile(new File(mDir, ICON_FILE_PREFIX + digest));
+    }
+
+    private void write(Runnable write) {
+        try {
+            mWriter.execute(write);
+        } catch (RejectedExecutionException e) {
+            // An icon arriving after the engine has gone; the next engine will fetch it again
+            Log.d(TAG, "Store closed, not saving");
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -30,12 +30,17 @@ import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WearForecast;
+import com.example.android.sunshine.shared.WearForecastCodec;
+import com.example.android.sunshine.shared.WearForecastDelta;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Asset;
@@ -44,42 +49,75 @@ import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode, and on devices
+ * that need burn-in protection, the layout moves a little every minute in ambient mode.
+ * <p/>
+ * The seconds can be turned off for interactive mode too with the {@code show_seconds} bool
+ * resource, in which case the watch face only wakes on minute boundaries.
  */
 public class SunshineWatchface extends CanvasWatchFaceService {
     private static final Typeface NORMAL_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
+     * Update rate in milliseconds for interactive mode when the seconds are shown.  Without them
+     * the timer wakes on minute boundaries instead.
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE_UPDATE_RATE_MS = TimeUnit.MINUTES.toMillis(1);
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    // The engine last created, for dump
+    private Engine mEngine;
+
     @Override
     public Engine onCreateEngine() {
-        return new Engine();
+        mEngine = new Engine();
+        return mEngine;
+    }
+
+    /**
+     * Prints the wakeup and draw rates, with
+     * {@code adb shell dumpsys activity service com.example.android.sunshine.app/.SunshineWatchface}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        Engine engine = mEngine;
+        if (engine != null) {
+            engine.mWakeupStats.dump(writer, SystemClock.elapsedRealtime());
+        }
     }
 
     private static class EngineHandler extends Handler {
@@ -107,13 +145,55 @@ public class SunshineWatchface extends CanvasWatchFaceService {
 
         private static final String TAG = "EngineWatchFace";
         private static final String WEATHER_PATH = "/weather";
-        private static final String WEATHER_TEMP_HIGH_KEY = "weather_temp_high_key";
-        private static final String WEATHER_TEMP_LOW_KEY = "weather_temp_low_key";
+        private static final String WEATHER_DELTA_PATH = "/weather_delta";
+        private static final String WEATHER_RESYNC_PATH = "/weather_resync";
+        private static final String WEATHER_CURRENT_PATH = "/weather_current";
+        private static final String RUN_SYNC_PATH = "/run_sync";
+        private static final String WEATHER_FORECAST_KEY = "weather_forecast_key";
+        private static final String WEATHER_SEQ_KEY = "weather_seq_key";
         private static final String WEATHER_TEMP_ICON_KEY = "weather_temp_icon_key";
+        private static final String WEATHER_TEMP_ICON_DIGEST_KEY = "weather_temp_icon_digest_key";
+        // Enough to keep every icon the phone sends
+        private static final int MAX_CACHED_ICONS = 16;
+        // Longest the background thread waits on the phone for one task
+        private static final long BACKGROUND_TIMEOUT_SECONDS = 30;
+        // How far the layout moves each minute in ambient mode on screens that need protecting
+        // from burn-in, and how many steps it moves before coming back
+        private static final int BURN_IN_STEP_PX = 2;
+        private static final int BURN_IN_STEPS = 5;
+        private static final int LAYER_INTERACTIVE = 0;
+        private static final int LAYER_AMBIENT = 1;
+        private static final int LAYER_LOW_BIT_AMBIENT = 2;
+        private static final int LAYER_COUNT = 3;
         final Handler mUpdateTimeHandler = new EngineHandler(this);
+        // The whole forecast as the phone last sent it, and today's temperatures from it
+        WearForecast mForecast;
+        // Sequence number the phone sent mForecast with; deltas only apply to that forecast
+        int mForecastSeq;
+        ForecastStore mStore;
+        int mWeatherTextEpochDay = Integer.MIN_VALUE;
         String weatherTempHigh;
         String weatherTempLow;
+        // Only read and written on the main thread
         Bitmap weatherTempIcon = null;
+        boolean mWeatherIconCached;
+        // Icons already fetched from the phone, by the digest of their bytes
+        final LruCache<String, Bitmap> mIconCache = new LruCache<String, Bitmap>(MAX_CACHED_ICONS) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue == weatherTempIcon) {
+                    // Still showing; recycled when it's replaced instead
+                    mWeatherIconCached = false;
+                } else if (oldValue != newValue) {
+                    oldValue.recycle();
+                }
+            }
+        };
+        // Fetches and decodes icons and sends messages to the phone, one at a time
+        ExecutorService mBackground;
+        // Bumped for each icon requested, so only the newest is shown
+        final AtomicInteger mIconRequest = new AtomicInteger();
+        int mIconSizePx;
         boolean mRegisteredTimeZoneReceiver = false;
         Paint mBackgroundPaint;
         Paint linePaint;
@@ -122,18 +202,32 @@ public class SunshineWatchface extends CanvasWatchFaceService {
         Paint textPaintDate;
         Paint textPaintTemp;
         Paint textPaintTempBold;
-        Rect textBounds = new Rect();
+        // The text drawn each frame, and its measurements, kept until it changes
+        final ClockText mClockText = new ClockText();
+        float mTimeWidth;
+        String mDateText;
+        final Rect mDateBounds = new Rect();
+        final Rect mTempHighBounds = new Rect();
+        String mInfoText;
+        final Rect mInfoBounds = new Rect();
+        // What doesn't change every second, drawn once per mode and reused until it changes
+        final Bitmap[] mLayers = new Bitmap[LAYER_COUNT];
+        final boolean[] mLayerValid = new boolean[LAYER_COUNT];
+        final Canvas mLayerCanvas = new Canvas();
         boolean mAmbient;
         SimpleDateFormat mDateFormat;
         float mXOffset;
         float mYOffset;
         Calendar mCalendar;
+        // Also told about locale changes, which change the date text the same way
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 mDateFormat = new SimpleDateFormat("ccc, MMM d yyyy", Locale.getDefault());
                 mDateFormat.setCalendar(mCalendar);
+                invalidateText();
+                invalidateLayers();
                 invalidate();
             }
         };
@@ -143,6 +237,10 @@ public class SunshineWatchface extends CanvasWatchFaceService {
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
+        boolean mBurnInProtection;
+        // Whether the seconds are shown while interactive; they never are in ambient mode
+        boolean mShowSeconds;
+        final WakeupStats mWakeupStats = new WakeupStats(SystemClock.elapsedRealtime());
         private GoogleApiClient mGoogleApiClient;
         DataApi.DataListener dataListener = new DataApi.DataListener() {
             @Override
@@ -156,19 +254,27 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                             Log.e(TAG, "Data Changed for " + WEATHER_PATH);
                             try {
                                 DataMapItem dataMapItem = DataMapItem.fromDataItem(event.getDataItem());
-                                weatherTempHigh = dataMapItem.getDataMap().getString(WEATHER_TEMP_HIGH_KEY);
-                                weatherTempLow = dataMapItem.getDataMap().getString(WEATHER_TEMP_LOW_KEY);
                                 final Asset photo = dataMapItem.getDataMap().getAsset(WEATHER_TEMP_ICON_KEY);
-                                new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        weatherTempIcon = bitmapFromAsset(mGoogleApiClient, photo);
-                                    }
-                                }).start();
+                                final String digest = dataMapItem.getDataMap().getString(WEATHER_TEMP_ICON_DIGEST_KEY);
+                                setForecast(WearForecastCodec.decode(
+                                        dataMapItem.getDataMap().getByteArray(WEATHER_FORECAST_KEY)),
+                                        dataMapItem.getDataMap().getInt(WEATHER_SEQ_KEY), digest);
+                                Bitmap cached = digest != null ? mIconCache.get(digest) : null;
+                                if (cached != null) {
+                                    // Seen this icon before, so there's no need to fetch the asset
+                                    mIconRequest.incrementAndGet();
+                                    setWeatherIcon(cached, digest);
+                                } else if (photo != null) {
+                                    loadIcon(digest, photo, null);
+                                } else {
+                                    mIconRequest.incrementAndGet();
+                                    setWeatherIcon(null, null);
+                                }
 
                             } catch (Exception e) {
                                 Log.e(TAG, "Exception   ", e);
-                                weatherTempIcon = null;
+                                mIconRequest.incrementAndGet();
+                                setWeatherIcon(null, null);
                             }
 
                         } else {
@@ -181,25 +287,91 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                     }
                 }
             }
+        };
 
-            private Bitmap bitmapFromAsset(GoogleApiClient apiClient, Asset asset) {
-                if (asset == null) {
-                    throw new IllegalArgumentException("Asset must be non-null");
+        MessageApi.MessageListener messageListener = new MessageApi.MessageListener() {
+            @Override
+            public void onMessageReceived(MessageEvent messageEvent) {
+                if (WEATHER_CURRENT_PATH.equals(messageEvent.getPath())) {
+                    byte[] data = messageEvent.getData();
+                    if (mForecast != null && data != null && data.length >= 4
+                            && ByteBuffer.wrap(data).getInt() == mForecastSeq) {
+                        // The phone has nothing newer, so what we have is good for a while yet
+                        mStore.saveForecast(mForecast, mForecastSeq, System.currentTimeMillis(),
+                                mStore.iconDigest);
+                    }
+                    return;
                 }
-                InputStream assetInputStream = Wearable.DataApi.getFdForAsset(apiClient, asset).await().getInputStream();
-
-                if (assetInputStream == null) {
-                    Log.w(TAG, "Requested an unknown Asset.");
-                    return null;
+                if (!WEATHER_DELTA_PATH.equals(messageEvent.getPath())) {
+                    return;
+                }
+                byte[] delta = messageEvent.getData();
+                try {
+                    if (mForecast == null || WearForecastDelta.getBaseSeq(delta) != mForecastSeq) {
+                        // Missed an update, so this delta doesn't apply to what we have
+                        Log.d(TAG, "Delta doesn't apply to forecast " + mForecastSeq);
+                        sendToPhone(WEATHER_RESYNC_PATH, null);
+                        return;
+                    }
+                    // A delta is only ever sent when the icon hasn't changed
+                    setForecast(WearForecastDelta.apply(mForecast, delta),
+                            WearForecastDelta.getSeq(delta), mStore.iconDigest);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Couldn't apply delta", e);
+                    sendToPhone(WEATHER_RESYNC_PATH, null);
                 }
-                return BitmapFactory.decodeStream(assetInputStream);
             }
         };
 
+        private void setForecast(WearForecast forecast, int seq, String iconDigest) {
+            mForecast = forecast;
+            mForecastSeq = seq;
+            mStore.saveForecast(forecast, seq, System.currentTimeMillis(), iconDigest);
+            // Pick today's temperatures out again on the next draw
+            mWeatherTextEpochDay = Integer.MIN_VALUE;
+            invalidate();
+        }
+
+        /**
+         * Sends a message to every connected node, on the background thread.
+         */
+        private void sendToPhone(final String path, final byte[] data) {
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                            .await(BACKGROUND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    for (final Node node : nodes.getNodes()) {
+                        MessageApi.SendMessageResult messageResult = Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(), path, data)
+                                .await(BACKGROUND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        if (messageResult.getStatus().isSuccess()) {
+                            Log.d("Sent to", node.getDisplayName());
+                        }
+                    }
+                }
+            });
+        }
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
 
+            mBackground = Executors.newSingleThreadExecutor();
+
+            // Show whatever the phone sent last, even before we're connected to it
+            mStore = new ForecastStore(SunshineWatchface.this);
+            mStore.load();
+            if (mStore.forecast != null) {
+                mForecast = mStore.forecast;
+                mForecastSeq = mStore.seq;
+            }
+            mIconSizePx = getResources().getDimensionPixelSize(R.dimen.weather_icon_size);
+            mShowSeconds = getResources().getBoolean(R.bool.show_seconds);
+            mClockText.setShowSeconds(mShowSeconds);
+            if (mStore.iconBytes != null) {
+                loadIcon(mStore.iconDigest, null, mStore.iconBytes);
+            }
+
             mCalendar = Calendar.getInstance();
             mDate = new Date();
 
@@ -233,6 +405,10 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             linePaint.setStrokeWidth(0.8f);
             linePaint.setAntiAlias(true);
 
+            // Tabular digits, so the time only needs measuring when the minute changes
+            textPaintTimeBold.setFontFeatureSettings("tnum");
+            mInfoText = getString(R.string.info_not_available);
+
             mDateFormat = new SimpleDateFormat("ccc, MMM d yyyy", Locale.getDefault());
             mDateFormat.setCalendar(mCalendar);
 
@@ -243,18 +419,14 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                         public void onConnected(Bundle bundle) {
                             Log.e(TAG, "onConnected: Successfully connected to Google API client");
                             Wearable.DataApi.addListener(mGoogleApiClient, dataListener);
-                            new Thread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
-                                    for (final Node node : nodes.getNodes()) {
-                                        MessageApi.SendMessageResult messageResult = Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(), "/run_sync", null).await();
-                                        if (messageResult.getStatus().isSuccess()) {
-                                            Log.d("Sent to", node.getDisplayName());
-                                        }
-                                    }
-                                }
-                            }).start();
+                            Wearable.MessageApi.addListener(mGoogleApiClient, messageListener);
+                            // Only ask for a sync if what was saved last time won't do
+                            if (mStore.isStale(System.currentTimeMillis(), TimeZone.getDefault())) {
+                                // Say which forecast we have, so the phone can answer without
+                                // going to the network if it has nothing newer
+                                sendToPhone(RUN_SYNC_PATH,
+                                        ByteBuffer.allocate(4).putInt(mForecastSeq).array());
+                            }
 
                         }
 
@@ -275,7 +447,15 @@ public class SunshineWatchface extends CanvasWatchFaceService {
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeCallbacksAndMessages(null);
+            mBackground.shutdownNow();
+            mStore.close();
+            for (int i = 0; i < LAYER_COUNT; i++) {
+                if (mLayers[i] != null) {
+                    mLayers[i].recycle();
+                    mLayers[i] = null;
+                }
+            }
             super.onDestroy();
         }
 
@@ -297,6 +477,7 @@ public class SunshineWatchface extends CanvasWatchFaceService {
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 mDateFormat = new SimpleDateFormat("ccc, MMM d yyyy", Locale.getDefault());
                 mDateFormat.setCalendar(mCalendar);
+                invalidateText();
             } else {
                 unregisterReceiver();
             }
@@ -312,6 +493,7 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             }
             mRegisteredTimeZoneReceiver = true;
             IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
             SunshineWatchface.this.registerReceiver(mTimeZoneReceiver, filter);
         }
 
@@ -338,17 +520,22 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             textPaintDate.setTextSize(resources.getDimension(R.dimen.date_text_size));
             textPaintTemp.setTextSize(resources.getDimension(R.dimen.temp_text_size));
             textPaintTempBold.setTextSize(resources.getDimension(R.dimen.temp_text_size));
+            invalidateText();
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            // Once a minute in either mode; the text only changes once a minute in ambient mode
+            // too.  Interactive wakeups are counted by the update timer.
+            mWakeupStats.onTimeTick(isInAmbientMode());
             invalidate();
         }
 
@@ -358,12 +545,18 @@ public class SunshineWatchface extends CanvasWatchFaceService {
             if (mAmbient != inAmbientMode) {
                 mBackgroundPaint.setColor(inAmbientMode ? getResources().getColor(R.color.digital_background_ambient) : getResources().getColor(R.color.digital_background));
                 mAmbient = inAmbientMode;
+                mClockText.setShowSeconds(mShowSeconds && !inAmbientMode);
+                mWakeupStats.setMode(inAmbientMode ? WakeupStats.MODE_AMBIENT
+                        : WakeupStats.MODE_INTERACTIVE, SystemClock.elapsedRealtime());
                 if (mLowBitAmbient) {
                     textPaintTime.setAntiAlias(!inAmbientMode);
+                    textPaintTimeBold.setAntiAlias(!inAmbientMode);
                     textPaintDate.setAntiAlias(!inAmbientMode);
                     textPaintTemp.setAntiAlias(!inAmbientMode);
+                    textPaintTempBold.setAntiAlias(!inAmbientMode);
                     linePaint.setAntiAlias(!inAmbientMode);
                 }
+                // Each mode has its own layer, so switching doesn't redraw them
                 invalidate();
             }
 
@@ -374,66 +567,303 @@ public class SunshineWatchface extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            // Runs every second while interactive, so nothing here allocates once the date and
+            // weather text for the day have been formatted and measured
+            mWakeupStats.onDraw();
+            long now = System.currentTimeMillis();
+            updateClockText(now);
+            updateWeatherText(now);
+
+            // Everything but the time comes from the layer for the current mode
+            Bitmap layer = getLayer(bounds);
+            int offsetX = 0;
+            int offsetY = 0;
+            if (mAmbient && mBurnInProtection) {
+                // Move everything a little each minute so no pixel stays lit for long
+                int step = mClockText.getMinuteOfDay();
+                offsetX = (step % BURN_IN_STEPS - BURN_IN_STEPS / 2) * BURN_IN_STEP_PX;
+                offsetY = (step / BURN_IN_STEPS % BURN_IN_STEPS - BURN_IN_STEPS / 2) * BURN_IN_STEP_PX;
+                canvas.drawPaint(mBackgroundPaint);
+            }
+            canvas.drawBitmap(layer, offsetX, offsetY, null);
+
+            int spaceY = 20;
+            int centerX = bounds.width() / 2 + offsetX;
+            int centerY = bounds.height() / 2 + offsetY;
+            canvas.drawText(mClockText.chars, 0, mClockText.length, centerX - mTimeWidth / 2,
+                    centerY - spaceY + 4 - mDateBounds.height(), textPaintTimeBold);
+        }
+
+        /**
+         * @return the layer for the current mode, drawn again first if it's out of date or the
+         * wrong size
+         */
+        private Bitmap getLayer(Rect bounds) {
+            int mode = !mAmbient ? LAYER_INTERACTIVE
+                    : mLowBitAmbient ? LAYER_LOW_BIT_AMBIENT : LAYER_AMBIENT;
+            Bitmap layer = mLayers[mode];
+            if (layer == null || layer.getWidth() != bounds.width()
+                    || layer.getHeight() != bounds.height()) {
+                if (layer != null) {
+                    layer.recycle();
+                }
+                // The ambient layers only use a few colors, so they don't need eight bits each
+                layer = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        mode == LAYER_INTERACTIVE ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+                mLayers[mode] = layer;
+                mLayerValid[mode] = false;
+            }
+            if (!mLayerValid[mode]) {
+                mLayerCanvas.setBitmap(layer);
+                drawLayer(mLayerCanvas, bounds);
+                mLayerCanvas.setBitmap(null);
+                mLayerValid[mode] = true;
+            }
+            return layer;
+        }
 
-            Log.e("onDraw", "Watch on Draw");
+        /**
+         * Draws everything that doesn't change every second: the background, date, divider and
+         * weather row.
+         */
+        private void drawLayer(Canvas canvas, Rect bounds) {
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
 
             int spaceY = 20;
             int spaceX = 10;
             int spaceYTemp;
 
-            String text;
-
             int centerX = bounds.width() / 2;
             int centerY = bounds.height() / 2;
 
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            mDate.setTime(now);
-
-            text = mDateFormat.format(mDate).toUpperCase();
-            textPaintDate.getTextBounds(text, 0, text.length(), textBounds);
-            canvas.drawText(text, centerX - textBounds.width() / 2, centerY, textPaintDate);
-            spaceYTemp = textBounds.height();
-            String ampm = mCalendar.get(Calendar.AM_PM) == 0 ? "AM" : "PM";
-            int hour = mCalendar.get(Calendar.HOUR) == 0 ? 12 : mCalendar.get(Calendar.HOUR);
-            text = String.format(Locale.ENGLISH, "%02d", hour)
-                    + ":" + String.format(Locale.ENGLISH, "%02d", mCalendar.get(Calendar.MINUTE))
-                    + ":" + String.format(Locale.ENGLISH, "%02d", mCalendar.get(Calendar.SECOND))
-                    + " " + String.format(Locale.ENGLISH, "%s", ampm);
-            textPaintTimeBold.getTextBounds(text, 0, text.length(), textBounds);
-            canvas.drawText(text, centerX - textBounds.width() / 2, centerY - spaceY + 4 - spaceYTemp, textPaintTimeBold);
+            canvas.drawText(mDateText, centerX - mDateBounds.width() / 2, centerY, textPaintDate);
 
             if (!mAmbient) {
                 spaceYTemp = spaceY;
                 canvas.drawLine(centerX - 20, centerY + spaceY, centerX + 20, centerY + spaceYTemp, linePaint);
                 if (weatherTempHigh != null && weatherTempLow != null) {
 
-                    text = weatherTempHigh;
-                    textPaintTempBold.getTextBounds(text, 0, text.length(), textBounds);
-                    spaceYTemp = textBounds.height() + spaceY + spaceYTemp;
-                    canvas.drawText(text, centerX - textBounds.width() / 2, centerY + spaceYTemp, textPaintTempBold);
+                    spaceYTemp = mTempHighBounds.height() + spaceY + spaceYTemp;
+                    canvas.drawText(weatherTempHigh, centerX - mTempHighBounds.width() / 2, centerY + spaceYTemp, textPaintTempBold);
 
-                    text = weatherTempLow;
-                    canvas.drawText(text, centerX + textBounds.width() / 2 + spaceX, centerY + spaceYTemp, textPaintTemp);
+                    canvas.drawText(weatherTempLow, centerX + mTempHighBounds.width() / 2 + spaceX, centerY + spaceYTemp, textPaintTemp);
 
                     if (weatherTempIcon != null) {
                         // draw weather icon
                         canvas.drawBitmap(weatherTempIcon,
-                                centerX - textBounds.width() / 2 - spaceX - weatherTempIcon.getWidth(),
-                                centerY + spaceYTemp - weatherTempIcon.getHeight() / 2 - textBounds.height() / 2, null);
+                                centerX - mTempHighBounds.width() / 2 - spaceX - weatherTempIcon.getWidth(),
+                                centerY + spaceYTemp - weatherTempIcon.getHeight() / 2 - mTempHighBounds.height() / 2, null);
                     }
                 } else {
                     // draw temperature high
-                    text = getString(R.string.info_not_available);
-                    textPaintDate.getTextBounds(text, 0, text.length(), textBounds);
-                    spaceYTemp = textBounds.height() + spaceY + spaceYTemp;
-                    canvas.drawText(text, centerX - textBounds.width() / 2, centerY + spaceYTemp, textPaintDate);
+                    spaceYTemp = mInfoBounds.height() + spaceY + spaceYTemp;
+                    canvas.drawText(mInfoText, centerX - mInfoBounds.width() / 2, centerY + spaceYTemp, textPaintDate);
+
+                }
+            }
+        }
 
+        /**
+         * Makes every layer draw again before it's next used.
+         */
+        private void invalidateLayers() {
+            Arrays.fill(mLayerValid, false);
+        }
+
+        /**
+         * Shows {@code icon}, recycling the one it replaces unless the cache still holds it.
+         * Only called on the main thread, which is the only thread that touches the icon or the
+         * icon cache.
+         *
+         * @param digest The digest the icon is cached under, or null if it isn't cached.
+         */
+        private void setWeatherIcon(Bitmap icon, String digest) {
+            Bitmap old = weatherTempIcon;
+            boolean oldCached = mWeatherIconCached;
+            weatherTempIcon = icon;
+            mWeatherIconCached = false;
+            if (icon != null && digest != null) {
+                if (mIconCache.get(digest) != icon) {
+                    mIconCache.put(digest, icon);
+                }
+                mWeatherIconCached = true;
+            }
+            if (old != null && old != icon && !oldCached) {
+                old.recycle();
+            }
+            invalidateLayers();
+            invalidate();
+        }
+
+        /**
+         * Fetches and decodes an icon on the background thread, then shows it.  Only the newest
+         * request is shown; requests overtaken while queued are skipped, and a decoded icon
+         * that's been overtaken is thrown away.
+         *
+         * @param asset      The asset to fetch, or null to decode {@code savedBytes}.
+         * @param savedBytes The icon as saved in the store, when there's no asset.
+         */
+        private void loadIcon(final String digest, final Asset asset, final byte[] savedBytes) {
+            final int request = mIconRequest.incrementAndGet();
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    if (request != mIconRequest.get()) {
+                        return;
+                    }
+                    byte[] bytes = asset != null ? bytesFromAsset(mGoogleApiClient, asset) : savedBytes;
+                    if (bytes == null || request != mIconRequest.get()) {
+                        return;
+                    }
+                    final Bitmap icon = decodeIcon(bytes, mIconSizePx);
+                    if (icon != null && asset != null && digest != null) {
+                        // Kept so a restarted watch face has it straight away
+                        mStore.saveIcon(digest, bytes);
+                    }
+                    // Handing it over through the handler publishes it safely to the main thread
+                    mUpdateTimeHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (request != mIconRequest.get()) {
+                                if (icon != null) {
+                                    icon.recycle();
+                                }
+                                return;
+                            }
+                            setWeatherIcon(icon, digest);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Decodes an icon, subsampled to no less than {@code sizePx} and then scaled down to it
+         * if it's still larger.
+         */
+        private Bitmap decodeIcon(byte[] bytes, int sizePx) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            int largest = Math.max(options.outWidth, options.outHeight);
+            if (largest <= 0) {
+                return null;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (largest / (options.inSampleSize * 2) >= sizePx) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            if (decoded == null || Math.max(decoded.getWidth(), decoded.getHeight()) <= sizePx) {
+                return decoded;
+            }
+            float scale = (float) sizePx / Math.max(decoded.getWidth(), decoded.getHeight());
+            Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                    Math.round(decoded.getWidth() * scale), Math.round(decoded.getHeight() * scale), true);
+            if (scaled != decoded) {
+                decoded.recycle();
+            }
+            return scaled;
+        }
+
+        private byte[] bytesFromAsset(GoogleApiClient apiClient, Asset asset) {
+            // Bounded, so a lost connection can't hold up the background thread for good
+            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(apiClient, asset)
+                    .await(BACKGROUND_TIMEOUT_SECONDS, TimeUnit.SECONDS).getInputStream();
+
+            if (assetInputStream == null) {
+                Log.w(TAG, "Requested an unknown Asset.");
+                return null;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = assetInputStream.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
                 }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't read Asset", e);
+                return null;
+            } finally {
+                try {
+                    assetInputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private void runInBackground(Runnable task) {
+            try {
+                mBackground.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The engine has gone
+                Log.d(TAG, "Engine destroyed, not running background task");
+            }
+        }
+
+        /**
+         * Sets the time text for {@code now}, and formats and measures the date again when the
+         * day has changed.
+         */
+        private void updateClockText(long now) {
+            int changed = mClockText.update(now, mCalendar.getTimeZone());
+            if ((changed & ClockText.CHANGED_DAY) != 0) {
+                mDate.setTime(now);
+                mDateText = mDateFormat.format(mDate).toUpperCase();
+                textPaintDate.getTextBounds(mDateText, 0, mDateText.length(), mDateBounds);
+                invalidateLayers();
+            }
+            if ((changed & ClockText.CHANGED_MINUTE) != 0) {
+                // The digits are all the same width, so the seconds never change it, but showing
+                // or hiding them does, and that's reported as a minute change
+                mTimeWidth = textPaintTimeBold.measureText(mClockText.chars, 0, mClockText.length);
+            }
+        }
+
+        /**
+         * Makes the next draw format and measure all of its text again, after the time zone,
+         * locale or text sizes have changed.
+         */
+        private void invalidateText() {
+            mClockText.reset();
+            mWeatherTextEpochDay = Integer.MIN_VALUE;
+        }
+
+        /**
+         * Formats and measures today's temperatures from the forecast, when the forecast or the
+         * day has changed since they were last formatted.
+         */
+        private void updateWeatherText(long now) {
+            int today = WearForecast.toEpochDay(now, mCalendar.getTimeZone());
+            if (today == mWeatherTextEpochDay) {
+                return;
+            }
+            mWeatherTextEpochDay = today;
+            invalidateLayers();
+            WearForecast.Day day = mForecast != null ? mForecast.getDay(today) : null;
+            if (day != null) {
+                weatherTempHigh = formatTemperature(day.maxTemp);
+                weatherTempLow = formatTemperature(day.minTemp);
+                textPaintTempBold.getTextBounds(weatherTempHigh, 0, weatherTempHigh.length(), mTempHighBounds);
+            } else {
+                weatherTempHigh = null;
+                weatherTempLow = null;
+                textPaintDate.getTextBounds(mInfoText, 0, mInfoText.length(), mInfoBounds);
             }
+        }
 
+        /**
+         * Converts a temperature in Celsius to the units the user picked on the phone.
+         */
+        private String formatTemperature(double temperature) {
+            if (mForecast.imperialUnits) {
+                temperature = (temperature * 1.8) + 32;
+            }
+            return String.format(getString(R.string.format_temperature), temperature);
         }
 
         /**
@@ -459,11 +889,13 @@ public class SunshineWatchface extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            mWakeupStats.onWakeup();
             invalidate();
             if (shouldTimerBeRunning()) {
+                // Wake on the next second, or the next minute when the seconds aren't shown
+                long rateMs = mShowSeconds ? INTERACTIVE_UPDATE_RATE_MS : MINUTE_UPDATE_RATE_MS;
                 long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long delayMs = rateMs - (timeMs % rateMs);
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often the watch face wakes up and draws, separately for interactive and ambient
+ * mode, so changes to the update policy can be compared by their rate per hour in each mode.
+ * <p/>
+ * Times are {@link android.os.SystemClock#elapsedRealtime} millis, passed in so the counts can
+ * be checked on the JVM.  Counting happens on the main thread and dumping on a binder thread,
+ * so every method is synchronized; neither is contended.
+ */
+class WakeupStats {
+
+    static final int MODE_INTERACTIVE = 0;
+    static final int MODE_AMBIENT = 1;
+    private static final String[] MODE_NAMES = {"interactive", "ambient"};
+
+    private static final long HOUR_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final long[] mWakeups = new long[MODE_NAMES.length];
+    private final long[] mDraws = new long[MODE_NAMES.length];
+    // Time spent in each mode before the current one began
+    private final long[] mMillis = new long[MODE_NAMES.length];
+    private int mMode = MODE_INTERACTIVE;
+    private long mModeStart;
+
+    WakeupStats(long now) {
+        mModeStart = now;
+    }
+
+    synchronized void setMode(int mode, long now) {
+        if (mode != mMode) {
+            mMillis[mMode] += now - mModeStart;
+            mMode = mode;
+            mModeStart = now;
+        }
+    }
+
+    /**
+     * Counts a timer or time tick that woke the watch face.
+     */
+    synchronized void onWakeup() {
+        mWakeups[mMode]++;
+    }
+
+    /**
+     * Counts a time tick as a wakeup if it came in ambient mode.  The system ticks once a minute
+     * in interactive mode too, but there the update timer's wakeups are the ones counted.
+     */
+    synchronized void onTimeTick(boolean ambient) {
+        if (ambient) {
+            onWakeup();
+        }
+    }
+
+    synchronized void onDraw() {
+        mDraws[mMode]++;
+    }
+
+    synchronized double getWakeupsPerHour(int mode, long now) {
+        return perHour(mWakeups[mode], millisIn(mode, now));
+    }
+
+    synchronized double getDrawsPerHour(int mode, long now) {
+        return perHour(mDraws[mode], millisIn(mode, now));
+    }
+
+    synchronized void dump(PrintWriter writer, long now) {
+        writer.println("Watch face wakeups and draws:");
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            writer.printf("  %-11s %8.1f min  %8.1f wakeups/h  %8.1f draws/h%n",
+                    MODE_NAMES[mode], millisIn(mode, now) / 60000.0,
+                    getWakeupsPerHour(mode, now), getDrawsPerHour(mode, now));
+        }
+    }
+
+    private long millisIn(int mode, long now) {
+        return mMillis[mode] + (mode == mMode ? now - mModeStart : 0);
+    }
+
+    private static double perHour(long count, long millis) {
+        return millis > 0 ? (double) count * HOUR_IN_MILLIS / millis : 0;
+    }
+}
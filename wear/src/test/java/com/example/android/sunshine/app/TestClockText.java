@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs on the JVM with {@code ./gradlew :wear:testDebugUnitTest}.  Checks the time text and
+ * that updating it for a frame allocates nothing, using the HotSpot per-thread allocation
+ * counter.
+ */
+public class TestClockText {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    // 2015-12-13 13:26:40 UTC
+    private static final long START = 1450013200000L;
+    private static final int FRAMES = 3600;
+
+    private static String text(ClockText clockText) {
+        return new String(clockText.chars, 0, clockText.length);
+    }
+
+    @Test
+    public void testFormat() {
+        ClockText clockText = new ClockText();
+        clockText.update(START, UTC);
+        assertEquals("01:26:40 PM", text(clockText));
+        clockText.update(1450051200000L - 1000, UTC);
+        assertEquals("11:59:59 PM", text(clockText));
+        clockText.update(1450051200000L, UTC);
+        assertEquals("12:00:00 AM", text(clockText));
+        clockText.update(1450051200000L + 3600000, UTC);
+        assertEquals("01:00:00 AM", text(clockText));
+        // Before 1970, where division rounds the wrong way
+        clockText.update(-1000, UTC);
+        assertEquals("11:59:59 PM", text(clockText));
+    }
+
+    @Test
+    public void testTimeZone() {
+        ClockText clockText = new ClockText();
+        clockText.update(START, TimeZone.getTimeZone("GMT+05:30"));
+        assertEquals("06:56:40 PM", text(clockText));
+    }
+
+    @Test
+    public void testWithoutSeconds() {
+        ClockText clockText = new ClockText();
+        clockText.update(START, UTC);
+        clockText.setShowSeconds(false);
+        assertEquals(ClockText.CHANGED_DAY | ClockText.CHANGED_MINUTE | ClockText.CHANGED_SECOND,
+                clockText.update(START, UTC));
+        assertEquals("01:26 PM", text(clockText));
+        clockText.setShowSeconds(true);
+        clockText.update(START + 1000, UTC);
+        assertEquals("01:26:41 PM", text(clockText));
+    }
+
+    @Test
+    public void testChanges() {
+        ClockText clockText = new ClockText();
+        assertEquals(ClockText.CHANGED_DAY | ClockText.CHANGED_MINUTE | ClockText.CHANGED_SECOND,
+                clockText.update(START, UTC));
+        assertEquals(0, clockText.update(START + 500, UTC));
+        assertEquals(ClockText.CHANGED_SECOND, clockText.update(START + 1000, UTC));
+        assertEquals(ClockText.CHANGED_MINUTE | ClockText.CHANGED_SECOND,
+                clockText.update(START + 20000, UTC));
+        clockText.reset();
+        assertEquals(ClockText.CHANGED_DAY | ClockText.CHANGED_MINUTE | ClockText.CHANGED_SECOND,
+                clockText.update(START + 20000, UTC));
+    }
+
+    @Test
+    public void testSteadyStateFrameAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        ClockText clockText = new ClockText();
+        // Warm up, so the count isn't of the interpreter or class loading
+        for (int i = 0; i < 10 * FRAMES; i++) {
+            clockText.update(START + i * 1000L, timeZone);
+        }
+
+        // What reading the counter costs by itself
+        long overhead = threads.getThreadAllocatedBytes(threadId);
+        overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        // An hour of frames, one a second, none of which changes the day
+        for (int i = 0; i < FRAMES; i++) {
+            clockText.update(START + i * 1000L, timeZone);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+        System.out.println("Allocated over " + FRAMES + " frames: " + allocated + " bytes");
+        assertEquals("Error: a frame shouldn't allocate", 0, allocated);
+    }
+}
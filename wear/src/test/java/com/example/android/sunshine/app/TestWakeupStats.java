@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWakeupStats {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testRatesPerMode() {
+        long now = 1000;
+        WakeupStats stats = new WakeupStats(now);
+        // Half an hour interactive, waking and drawing every second
+        for (int i = 0; i < 30 * 60; i++) {
+            stats.onWakeup();
+            stats.onDraw();
+        }
+        now += 30 * MINUTE;
+        stats.setMode(WakeupStats.MODE_AMBIENT, now);
+        // Two hours ambient, ticking once a minute
+        for (int i = 0; i < 120; i++) {
+            stats.onWakeup();
+            stats.onDraw();
+        }
+        now += 120 * MINUTE;
+
+        assertEquals(3600, stats.getWakeupsPerHour(WakeupStats.MODE_INTERACTIVE, now), 0.01);
+        assertEquals(3600, stats.getDrawsPerHour(WakeupStats.MODE_INTERACTIVE, now), 0.01);
+        assertEquals(60, stats.getWakeupsPerHour(WakeupStats.MODE_AMBIENT, now), 0.01);
+        assertEquals(60, stats.getDrawsPerHour(WakeupStats.MODE_AMBIENT, now), 0.01);
+    }
+
+    @Test
+    public void testTimeTicksOnlyCountInAmbient() {
+        long now = 0;
+        WakeupStats stats = new WakeupStats(now);
+        // An hour interactive, with the timer waking every minute and the system's tick as well
+        for (int i = 0; i < 60; i++) {
+            stats.onWakeup();
+            stats.onTimeTick(false);
+        }
+        now += 60 * MINUTE;
+        stats.setMode(WakeupStats.MODE_AMBIENT, now);
+        // An hour ambient, where only the tick wakes it
+        for (int i = 0; i < 60; i++) {
+            stats.onTimeTick(true);
+        }
+        now += 60 * MINUTE;
+
+        assertEquals("Error: interactive ticks should not count twice",
+                60, stats.getWakeupsPerHour(WakeupStats.MODE_INTERACTIVE, now), 0.01);
+        assertEquals(60, stats.getWakeupsPerHour(WakeupStats.MODE_AMBIENT, now), 0.01);
+    }
+
+    @Test
+    public void testNoTimeInMode() {
+        WakeupStats stats = new WakeupStats(0);
+        assertEquals(0, stats.getWakeupsPerHour(WakeupStats.MODE_AMBIENT, MINUTE), 0);
+    }
+
+    @Test
+    public void testDump() {
+        WakeupStats stats = new WakeupStats(0);
+        stats.onWakeup();
+        StringWriter out = new StringWriter();
+        stats.dump(new PrintWriter(out), MINUTE);
+        String dump = out.toString();
+        assertTrue("Error: the dump should have a line per mode",
+                dump.contains("interactive") && dump.contains("ambient"));
+    }
+}